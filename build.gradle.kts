@@ -22,6 +22,19 @@ repositories {
     jcenter()
 }
 
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+val jmh by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output
+    runtimeClasspath += sourceSets.main.get().output
+}
+
+configurations["jmhImplementation"].extendsFrom(configurations.implementation.get())
+configurations["jmhRuntimeOnly"].extendsFrom(configurations.runtimeOnly.get())
+
 dependencies {
     implementation("org.json:json:20180130")
     implementation("org.apache.httpcomponents:httpclient:4.5.10")
@@ -31,6 +44,9 @@ dependencies {
     testImplementation("org.mockito:mockito-core:2.18.3")
     testImplementation("ch.qos.logback:logback-classic:1.2.3")
     testImplementation("commons-io:commons-io:2.6")
+
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:1.23")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.23")
 }
 
 project.group = "ru.rambler.usermodel"
@@ -81,6 +97,15 @@ tasks.test {
     }
 }
 
+tasks.register<JavaExec>("jmh") {
+    description = "Runs the JMH benchmarks with the GC profiler, -Pjmh.include=<regexp> picks some of them."
+    group = "verification"
+    classpath = jmh.runtimeClasspath
+    main = "org.openjdk.jmh.Main"
+    args("-prof", "gc")
+    project.findProperty("jmh.include")?.let { args(it) }
+}
+
 jacoco {
     toolVersion = "0.8.1"
 }
@@ -0,0 +1,87 @@
+package ru.rambler.webhdfs;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ * Moving a local file to and from {@link WebHdfsStandInServer}: {@link #upload} and {@link #downloadTo} go through
+ * file channels, {@link #createFromStream} and {@link #openToStream} copy through streams as callers did before. The
+ * GC profiler shows the bytes allocated per transfer next to the time.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WebHdfsChannelBenchmark {
+    @Param({ "apache", "jdk" })
+    String transport;
+
+    @Param({ "67108864" })
+    int fileSize;
+
+    WebHdfsStandInServer server;
+    WebHdfsClient client;
+    WebHdfsResource resource;
+    Path source;
+    Path target;
+
+    @Setup
+    public void setup() throws IOException {
+        server = new WebHdfsStandInServer(fileSize);
+        WebHdfsTransport instance = transport.equals("jdk") ? WebHdfsJdkTransport.create()
+            : WebHdfsApacheTransport.create();
+        client = WebHdfsClient.initiate(new URI[] { server.getURI() }, "hdfs", instance);
+        resource = client.resource(Paths.get("/user/hdfs/events/part-00042.gz"));
+
+        byte[] data = new byte[fileSize];
+        new Random(fileSize).nextBytes(data);
+        source = Files.createTempFile("webhdfs-bench", ".src");
+        target = Files.createTempFile("webhdfs-bench", ".dst");
+        Files.write(source, data);
+    }
+
+    @TearDown
+    public void teardown() throws IOException {
+        client.getTransport().close();
+        server.close();
+        Files.deleteIfExists(source);
+        Files.deleteIfExists(target);
+    }
+
+    @Benchmark
+    public void upload() {
+        resource.upload(source);
+    }
+
+    @Benchmark
+    public void createFromStream() throws IOException {
+        try (InputStream in = Files.newInputStream(source)) {
+            resource.create(in);
+        }
+    }
+
+    @Benchmark
+    public long downloadTo() {
+        return resource.downloadTo(target);
+    }
+
+    @Benchmark
+    public long openToStream() throws IOException {
+        try (InputStream in = resource.open(); OutputStream out = Files.newOutputStream(target)) {
+            return in.transferTo(out);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package ru.rambler.webhdfs;
+
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+
+/**
+ * In-process stand-in for a NameNode and its DataNode, answering just enough of WebHDFS for the benchmarks:
+ * GETFILESTATUS of any path, CREATE discarding the uploaded data and OPEN serving the same fileSize bytes for any path.
+ * CREATE and OPEN redirect to the /data context, as a NameNode redirects to a DataNode.
+ */
+public class WebHdfsStandInServer implements AutoCloseable {
+    static final byte[] FILE_STATUS = ("{\"FileStatus\":{\"accessTime\":0,\"blockSize\":134217728,\"childrenNum\":0,"
+        + "\"fileId\":16386,\"group\":\"supergroup\",\"length\":0,\"modificationTime\":1577836800000,"
+        + "\"owner\":\"hdfs\",\"pathSuffix\":\"\",\"permission\":\"644\",\"replication\":3,\"storagePolicy\":0,"
+        + "\"type\":\"FILE\"}}").getBytes(StandardCharsets.UTF_8);
+
+    HttpServer server;
+    ExecutorService executor = Executors.newCachedThreadPool();
+    byte[] content;
+
+    public WebHdfsStandInServer(int fileSize) throws IOException {
+        this.content = new byte[fileSize];
+        new Random(fileSize).nextBytes(content);
+        // Without it every kept-alive exchange waits out a delayed ACK, as headers and body go in separate packets
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.setExecutor(executor);
+        this.server.createContext(WebHdfsClient.API_PATH, this::nameNode);
+        this.server.createContext("/data/", this::dataNode);
+        this.server.start();
+    }
+
+    public URI getURI() {
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort());
+    }
+
+    void nameNode(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getRawQuery();
+        String path = exchange.getRequestURI().getRawPath().substring(WebHdfsClient.API_PATH.length());
+        drain(exchange);
+        if (query.startsWith("op=GETFILESTATUS&")) {
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            send(exchange, 200, FILE_STATUS);
+        } else if (query.startsWith("op=CREATE&") || query.startsWith("op=OPEN&")) {
+            exchange.getResponseHeaders().add("Location", getURI() + "/data/" + path + "?" + query);
+            send(exchange, 307, null);
+        } else {
+            send(exchange, 400, null);
+        }
+    }
+
+    void dataNode(HttpExchange exchange) throws IOException {
+        drain(exchange);
+        if (exchange.getRequestMethod().equals("PUT")) {
+            send(exchange, 201, null);
+        } else {
+            send(exchange, 200, content);
+        }
+    }
+
+    static void drain(HttpExchange exchange) throws IOException {
+        exchange.getRequestBody().transferTo(OutputStream.nullOutputStream());
+    }
+
+    static void send(HttpExchange exchange, int code, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(code, body != null ? body.length : -1);
+        try (OutputStream out = exchange.getResponseBody()) {
+            if (body != null) {
+                out.write(body);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,94 @@
+package ru.rambler.webhdfs;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ * Latency and, with the GC profiler, allocations per request of both transports against {@link WebHdfsStandInServer}:
+ * a GETFILESTATUS, and an OPEN of a small file, which adds the redirect to the DataNode and the body. The server runs
+ * in the same JVM, so its allocations, the same for both transports, are counted too. {@link #coldStart} times
+ * creating a client and its first request in a fresh JVM.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WebHdfsTransportBenchmark {
+    @State(Scope.Benchmark)
+    public static class Cluster {
+        @Param({ "apache", "jdk" })
+        String transport;
+
+        WebHdfsStandInServer server;
+
+        @Setup
+        public void start() throws IOException {
+            server = new WebHdfsStandInServer(4096);
+        }
+
+        @TearDown
+        public void stop() {
+            server.close();
+        }
+
+        WebHdfsClient connect() {
+            WebHdfsTransport instance = transport.equals("jdk") ? WebHdfsJdkTransport.create()
+                : WebHdfsApacheTransport.create();
+            return WebHdfsClient.initiate(new URI[] { server.getURI() }, "hdfs", instance);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Connected {
+        WebHdfsClient client;
+        WebHdfsResource resource;
+
+        @Setup
+        public void connect(Cluster cluster) {
+            client = cluster.connect();
+            resource = client.resource(Paths.get("/user/hdfs/events/part-00042.gz"));
+        }
+
+        @TearDown
+        public void close() throws IOException {
+            client.getTransport().close();
+        }
+    }
+
+    @Benchmark
+    public JSONObject getFileStatus(Connected connected) {
+        return connected.resource.getFileStatus();
+    }
+
+    @Benchmark
+    public long open(Connected connected) throws IOException {
+        try (InputStream in = connected.resource.open()) {
+            return in.transferTo(OutputStream.nullOutputStream());
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    @Fork(10)
+    public JSONObject coldStart(Cluster cluster) throws IOException {
+        WebHdfsClient client = cluster.connect();
+        try {
+            return client.resource(Paths.get("/user/hdfs/events/part-00042.gz")).getFileStatus();
+        } finally {
+            client.getTransport().close();
+        }
+    }
+}
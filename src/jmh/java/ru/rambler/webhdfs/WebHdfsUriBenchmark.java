@@ -0,0 +1,71 @@
+package ru.rambler.webhdfs;
+
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.message.BasicNameValuePair;
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ * Cost of assembling an OPEN request URI with an offset and a length. Run with the GC profiler, as the jmh task does,
+ * to see the allocations per request. {@link #uriBuilder} rebuilds the URI the way the client did before the
+ * precomputed templates, {@link #freshResource} encodes the path on every call and {@link #cachedPath} reuses the
+ * path encoded by a resource.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WebHdfsUriBenchmark {
+    static final URI HOST = URI.create("http://namenode.local:50070");
+    static final String USER = "hdfs";
+
+    @Param({ "/user/hdfs/events/2020/01/31/part-00042.gz", "/user/hdfs/reports/January 2020/a+b=50%.csv" })
+    String path;
+
+    long offset = 1L << 20;
+    long length = 1L << 16;
+    Path parsed;
+    WebHdfsClient client;
+    WebHdfsResource resource;
+
+    @Setup
+    public void setup() {
+        parsed = Paths.get(path);
+        client = WebHdfsClient.initiate(new URI[] { HOST }, USER);
+        resource = client.resource(parsed);
+    }
+
+    @Benchmark
+    public URI uriBuilder() throws URISyntaxException {
+        String pathStr = parsed.toAbsolutePath().toString().replaceAll("^/", "");
+        List<NameValuePair> params = new ArrayList<NameValuePair>();
+        params.add(new BasicNameValuePair("offset", String.valueOf(offset)));
+        params.add(new BasicNameValuePair("length", String.valueOf(length)));
+        return new URIBuilder(HOST).setPath(WebHdfsClient.API_PATH + pathStr).addParameter("op", "OPEN")
+            .addParameter("user.name", USER).addParameters(params).build();
+    }
+
+    @Benchmark
+    public URI freshResource() throws URISyntaxException {
+        WebHdfsQuery query = WebHdfsQuery.create().add("offset", offset).add("length", length);
+        return client.buildURI(client.hostPrefixes[0], WebHdfsQuery.encodePath(parsed), "OPEN", query);
+    }
+
+    @Benchmark
+    public URI cachedPath() throws URISyntaxException {
+        WebHdfsQuery query = WebHdfsQuery.create().add("offset", offset).add("length", length);
+        return client.buildURI(client.hostPrefixes[0], resource.encodedPath(), "OPEN", query);
+    }
+}
@@ -0,0 +1,140 @@
+package ru.rambler.webhdfs;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+
+/**
+ * Transport over Apache HttpClient 4.x, whose default redirect strategy already follows redirects of GET only.
+ * Timeouts are those configured on the HttpClient; the timeout of a request is not applied, since a per-request
+ * configuration would replace the client's defaults. The client is blocking, so the reactive reads and writes take
+ * the default {@link #executeAsync(Request, java.util.concurrent.Executor)} and hold an executor thread per transfer.
+ */
+public class WebHdfsApacheTransport implements WebHdfsTransport {
+    HttpClient client;
+
+    public WebHdfsApacheTransport(HttpClient client) {
+        this.client = client;
+    }
+
+    public static WebHdfsApacheTransport create() {
+        HttpClientBuilder builder = HttpClientBuilder.create();
+        builder.setConnectionManager(new PoolingHttpClientConnectionManager());
+        builder.setConnectionManagerShared(true);
+        return new WebHdfsApacheTransport(builder.build());
+    }
+
+    public HttpClient getClient() {
+        return client;
+    }
+
+    static class BodyEntity extends AbstractHttpEntity {
+        Body body;
+
+        BodyEntity(Body body) {
+            this.body = body;
+            setContentType(ContentType.APPLICATION_OCTET_STREAM.toString());
+            setChunked(body.getLength() < 0);
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return body.isRepeatable();
+        }
+
+        @Override
+        public long getContentLength() {
+            return body.getLength();
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            return body.open();
+        }
+
+        @Override
+        public void writeTo(OutputStream outstream) throws IOException {
+            body.writeTo(outstream);
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return !body.isRepeatable();
+        }
+    }
+
+    /**
+     * Defers fetching the entity content to the first read, so that content failures surface where the body is
+     * consumed.
+     */
+    static class EntityInputStream extends InputStream {
+        HttpEntity entity;
+        InputStream content;
+
+        EntityInputStream(HttpEntity entity) {
+            this.entity = entity;
+        }
+
+        InputStream content() throws IOException {
+            if (content == null) {
+                content = entity.getContent();
+            }
+            return content;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return content().read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return content().read(b, off, len);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return content().available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            content().close();
+        }
+    }
+
+    @Override
+    public Response execute(Request request) throws IOException {
+        RequestBuilder builder = RequestBuilder.create(request.getMethod()).setUri(request.getUri());
+        if (request.getBody() != null) {
+            builder.setEntity(new BodyEntity(request.getBody()));
+        }
+        HttpResponse response = client.execute(builder.build());
+
+        Map<String, String> headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        Header[] all = response.getAllHeaders();
+        if (all != null) {
+            for (Header header : all) {
+                headers.putIfAbsent(header.getName(), header.getValue());
+            }
+        }
+        HttpEntity entity = response.getEntity();
+        return new Response(
+            response.getStatusLine().getStatusCode(), headers, entity != null ? new EntityInputStream(entity) : null
+        );
+    }
+}
@@ -0,0 +1,384 @@
+package ru.rambler.webhdfs;
+
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Fixed-size cache of file blocks kept in memory-mapped files on local disk. Blocks are keyed by path, fileId,
+ * modificationTime and length, so a rewritten file never hits stale blocks, and evicted with the clock algorithm.
+ * Concurrent misses on the same block share a single OPEN request.
+ *
+ * The key comes from the status loaded on the resource. Writes through the resource itself drop that status, so the
+ * next read sees the new file; a resource held while another client rewrites the file keeps its status until
+ * {@link WebHdfsResource#refreshStat()}.
+ */
+public class WebHdfsBlockCache implements Closeable {
+    public static int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+    int blockSize;
+    int capacity;
+    int slotsPerSegment;
+    FileChannel[] channels;
+    MappedByteBuffer[] segments;
+
+    BlockKey[] slotKeys;
+    int[] pins;
+    boolean[] referenced;
+    int hand;
+    Map<BlockKey, Integer> index = new HashMap<BlockKey, Integer>();
+    ConcurrentHashMap<BlockKey, CompletableFuture<Integer>> loading =
+        new ConcurrentHashMap<BlockKey, CompletableFuture<Integer>>();
+
+    AtomicLong hits = new AtomicLong();
+    AtomicLong misses = new AtomicLong();
+    AtomicLong evictions = new AtomicLong();
+    AtomicLong bypasses = new AtomicLong();
+    final Logger logger = LoggerFactory.getLogger(WebHdfsBlockCache.class);
+
+    static class BlockKey {
+        final String path;
+        final long fileId;
+        final long modificationTime;
+        final long length;
+        final long block;
+
+        BlockKey(String path, long fileId, long modificationTime, long length, long block) {
+            this.path = path;
+            this.fileId = fileId;
+            this.modificationTime = modificationTime;
+            this.length = length;
+            this.block = block;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof BlockKey)) {
+                return false;
+            }
+            BlockKey other = (BlockKey) o;
+            return fileId == other.fileId && modificationTime == other.modificationTime && length == other.length
+                && block == other.block && path.equals(other.path);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = path.hashCode();
+            result = 31 * result + Long.hashCode(fileId);
+            result = 31 * result + Long.hashCode(modificationTime);
+            result = 31 * result + Long.hashCode(length);
+            return 31 * result + Long.hashCode(block);
+        }
+    }
+
+    public WebHdfsBlockCache(Path directory, int blockSize, int capacity) {
+        if (blockSize <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("Block size and capacity must be positive");
+        }
+        this.blockSize = blockSize;
+        this.capacity = capacity;
+        this.slotsPerSegment = Math.min(capacity, Integer.MAX_VALUE / blockSize);
+        this.slotKeys = new BlockKey[capacity];
+        this.pins = new int[capacity];
+        this.referenced = new boolean[capacity];
+
+        int segmentsNum = (capacity + slotsPerSegment - 1) / slotsPerSegment;
+        this.channels = new FileChannel[segmentsNum];
+        this.segments = new MappedByteBuffer[segmentsNum];
+        try {
+            for (int i = 0; i < segmentsNum; i++) {
+                int slots = Math.min(slotsPerSegment, capacity - i * slotsPerSegment);
+                channels[i] = FileChannel.open(
+                    directory.resolve("blocks-" + i + ".cache"), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE
+                );
+                segments[i] = channels[i].map(FileChannel.MapMode.READ_WRITE, 0, (long) slots * blockSize);
+            }
+        } catch (IOException e) {
+            close();
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public WebHdfsBlockCache(Path directory, long size) {
+        this(directory, DEFAULT_BLOCK_SIZE, (int) Math.max(1, size / DEFAULT_BLOCK_SIZE));
+    }
+
+    ByteBuffer slotBuffer(int slot) {
+        ByteBuffer buffer = segments[slot / slotsPerSegment].duplicate();
+        int start = (slot % slotsPerSegment) * blockSize;
+        buffer.limit(start + blockSize);
+        buffer.position(start);
+        return buffer;
+    }
+
+    synchronized int lookup(BlockKey key) {
+        Integer slot = index.get(key);
+        if (slot == null) {
+            return -1;
+        }
+        pins[slot]++;
+        referenced[slot] = true;
+        return slot;
+    }
+
+    synchronized int allocate() {
+        for (int i = 0; i < 2 * capacity; i++) {
+            int slot = hand;
+            hand = (hand + 1) % capacity;
+            if (pins[slot] > 0) {
+                continue;
+            }
+            if (referenced[slot]) {
+                referenced[slot] = false;
+                continue;
+            }
+            if (slotKeys[slot] != null) {
+                index.remove(slotKeys[slot], slot);
+                slotKeys[slot] = null;
+                evictions.incrementAndGet();
+            }
+            pins[slot] = 1;
+            return slot;
+        }
+        return -1;
+    }
+
+    /**
+     * Maps the key to the loaded slot unless another slot already holds it; the slot then stays unkeyed and is the
+     * first to be reused.
+     */
+    synchronized void publish(BlockKey key, int slot) {
+        if (index.putIfAbsent(key, slot) == null) {
+            slotKeys[slot] = key;
+            referenced[slot] = true;
+        }
+    }
+
+    synchronized void release(int slot) {
+        pins[slot]--;
+    }
+
+    void load(WebHdfsResource resource, long block, int slot, int length) {
+        ByteBuffer target = slotBuffer(slot);
+        byte[] chunk = new byte[Math.min(length, 1 << 16)];
+        try (InputStream data = resource.openRange(block * blockSize, (long) length, null)) {
+            int remaining = length;
+            while (remaining > 0) {
+                int n = data.read(chunk, 0, Math.min(chunk.length, remaining));
+                if (n < 0) {
+                    throw new EOFException("Unexpected end of " + resource.getPath() + " at block " + block);
+                }
+                target.put(chunk, 0, n);
+                remaining -= n;
+            }
+        } catch (IOException e) {
+            throw new WebHdfsClient.NetworkError(e);
+        }
+    }
+
+    /**
+     * Returns a pinned slot holding the block, or -1 if every slot is pinned and the block has to be read directly.
+     */
+    int acquire(WebHdfsResource resource, long block, int length) {
+        BlockKey key = new BlockKey(
+            resource.getPath().toAbsolutePath().toString(), resource.getFileId(), resource.getModificationTime(),
+            resource.getLength(), block
+        );
+        while (true) {
+            int slot = lookup(key);
+            if (slot >= 0) {
+                hits.incrementAndGet();
+                return slot;
+            }
+
+            CompletableFuture<Integer> loaded = new CompletableFuture<Integer>();
+            CompletableFuture<Integer> inFlight = loading.putIfAbsent(key, loaded);
+            if (inFlight != null) {
+                try {
+                    inFlight.join();
+                } catch (CompletionException e) {
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    }
+                    throw e;
+                }
+                continue;
+            }
+
+            try {
+                // The previous loader may have published and left between the lookup and putIfAbsent
+                slot = lookup(key);
+                if (slot >= 0) {
+                    hits.incrementAndGet();
+                    loading.remove(key);
+                    loaded.complete(slot);
+                    return slot;
+                }
+                misses.incrementAndGet();
+                slot = allocate();
+                if (slot < 0) {
+                    bypasses.incrementAndGet();
+                } else {
+                    try {
+                        load(resource, block, slot, length);
+                    } catch (RuntimeException e) {
+                        release(slot);
+                        throw e;
+                    }
+                    publish(key, slot);
+                }
+                loading.remove(key);
+                loaded.complete(slot);
+                return slot;
+            } catch (RuntimeException e) {
+                loading.remove(key);
+                loaded.completeExceptionally(e);
+                throw e;
+            }
+        }
+    }
+
+    public int read(WebHdfsResource resource, long position, byte[] b, int off, int len) {
+        long fileLength = resource.getLength();
+        if (position >= fileLength) {
+            return -1;
+        }
+
+        long block = position / blockSize;
+        int blockLength = (int) Math.min(blockSize, fileLength - block * blockSize);
+        int inBlock = (int) (position - block * blockSize);
+        int n = Math.min(len, blockLength - inBlock);
+
+        int slot = acquire(resource, block, blockLength);
+        if (slot < 0) {
+            try (InputStream data = resource.openRange(position, (long) n, null)) {
+                int read = 0;
+                while (read < n) {
+                    int r = data.read(b, off + read, n - read);
+                    if (r < 0) {
+                        break;
+                    }
+                    read += r;
+                }
+                return read;
+            } catch (IOException e) {
+                throw new WebHdfsClient.NetworkError(e);
+            }
+        }
+
+        try {
+            ByteBuffer data = slotBuffer(slot);
+            data.position(data.position() + inBlock);
+            data.get(b, off, n);
+            return n;
+        } finally {
+            release(slot);
+        }
+    }
+
+    public InputStream open(WebHdfsResource resource, long offset, Long length) {
+        long fileLength = resource.getLength();
+        long end = length == null ? fileLength : Math.min(fileLength, offset + length);
+        return new InputStream() {
+            long position = offset;
+
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (position >= end) {
+                    return -1;
+                }
+                int n = WebHdfsBlockCache.this.read(resource, position, b, off, (int) Math.min(len, end - position));
+                if (n > 0) {
+                    position += n;
+                }
+                return n;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                long skipped = Math.max(0, Math.min(n, end - position));
+                position += skipped;
+                return skipped;
+            }
+        };
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getBypasses() {
+        return bypasses.get();
+    }
+
+    public double getHitRatio() {
+        long hits = getHits();
+        long total = hits + getMisses();
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    public synchronized int getCachedBlocks() {
+        return index.size();
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public String toString() {
+        return "WebHdfsBlockCache{" + "hits=" + getHits() + ", misses=" + getMisses() + ", evictions="
+            + getEvictions() + ", hitRatio=" + getHitRatio() + '}';
+    }
+
+    @Override
+    public synchronized void close() {
+        index.clear();
+        for (FileChannel channel : channels) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    logger.warn("Failed to close cache file", e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package ru.rambler.webhdfs;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+
+/**
+ * Bounded set of equally sized buffers shared by the streams of a client, so transfers reuse memory instead of
+ * allocating their own. A writer takes its whole working set at once when that many buffers are free, so writers never
+ * wait on each other; like readers taking a single buffer, it allocates its own when the pool runs short.
+ *
+ * <p>
+ * Buffers live on the heap: both transports consume request bodies as byte streams, so direct buffers would only add
+ * a copy on the way to the socket.
+ */
+public class WebHdfsBufferPool {
+    public static int DEFAULT_BUFFER_SIZE = 1 << 18;
+    public static int DEFAULT_BUFFERS = 64;
+
+    int bufferSize;
+    int capacity;
+    Semaphore permits;
+    ConcurrentLinkedQueue<byte[]> free = new ConcurrentLinkedQueue<byte[]>();
+
+    public WebHdfsBufferPool(int bufferSize, int capacity) {
+        if (bufferSize <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("Buffer size and capacity must be positive");
+        }
+        this.bufferSize = bufferSize;
+        this.capacity = capacity;
+        this.permits = new Semaphore(capacity, true);
+    }
+
+    public static WebHdfsBufferPool create() {
+        return new WebHdfsBufferPool(DEFAULT_BUFFER_SIZE, DEFAULT_BUFFERS);
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getAvailable() {
+        return permits.availablePermits();
+    }
+
+    byte[] take() {
+        byte[] buffer = free.poll();
+        return buffer != null ? buffer : new byte[bufferSize];
+    }
+
+    /**
+     * Takes count buffers without waiting, or returns null unless that many are free.
+     */
+    public List<byte[]> reserve(int count) {
+        if (!permits.tryAcquire(count)) {
+            return null;
+        }
+        List<byte[]> buffers = new ArrayList<byte[]>(count);
+        for (int i = 0; i < count; i++) {
+            buffers.add(take());
+        }
+        return buffers;
+    }
+
+    /**
+     * A free buffer without waiting, or null if all are taken.
+     */
+    public byte[] poll() {
+        return permits.tryAcquire() ? take() : null;
+    }
+
+    /**
+     * Gives back buffers taken with reserve or poll; each must be released exactly once.
+     */
+    public void release(List<byte[]> buffers) {
+        for (byte[] buffer : buffers) {
+            release(buffer);
+        }
+    }
+
+    public void release(byte[] buffer) {
+        free.offer(buffer);
+        permits.release();
+    }
+
+    @Override
+    public String toString() {
+        return "WebHdfsBufferPool{" + "bufferSize=" + bufferSize + ", capacity=" + capacity + ", available="
+            + getAvailable() + '}';
+    }
+}
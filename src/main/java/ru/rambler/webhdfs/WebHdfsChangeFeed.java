@@ -0,0 +1,111 @@
+package ru.rambler.webhdfs;
+
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Turns consecutive snapshots of a snapshottable directory into a feed of changes. Every poll takes a new snapshot,
+ * streams its diff against the previous one and, once the whole diff was parsed and handled, drops the previous
+ * snapshot; otherwise the new snapshot is dropped and the next poll starts over from the previous one. The name of the
+ * last consumed snapshot is the feed position and can be persisted to continue later.
+ */
+public class WebHdfsChangeFeed {
+    WebHdfsResource root;
+    String prefix;
+    String lastSnapshot;
+    long lastSequence;
+    boolean deleteConsumed = true;
+    final Logger logger = LoggerFactory.getLogger(WebHdfsChangeFeed.class);
+
+    public interface Listener {
+        void onChange(WebHdfsSnapshotDiff.Entry entry);
+    }
+
+    public WebHdfsChangeFeed(WebHdfsResource root, String prefix, String lastSnapshot) {
+        this.root = root;
+        this.prefix = prefix;
+        this.lastSnapshot = lastSnapshot;
+    }
+
+    public WebHdfsChangeFeed(WebHdfsResource root, String prefix) {
+        this(root, prefix, null);
+    }
+
+    public WebHdfsChangeFeed deleteConsumed(boolean deleteConsumed) {
+        this.deleteConsumed = deleteConsumed;
+        return this;
+    }
+
+    public String getLastSnapshot() {
+        return lastSnapshot;
+    }
+
+    String nextSnapshotName() {
+        lastSequence = Math.max(System.currentTimeMillis(), lastSequence + 1);
+        return prefix + "-" + lastSequence;
+    }
+
+    /**
+     * Takes the first snapshot if the feed has no position yet; changes made before it are not reported.
+     */
+    public String start() {
+        if (lastSnapshot == null) {
+            lastSnapshot = nextSnapshotName();
+            root.createSnapshot(lastSnapshot);
+        }
+        return lastSnapshot;
+    }
+
+    public long poll(Listener listener) {
+        start();
+        String snapshot = nextSnapshotName();
+        root.createSnapshot(snapshot);
+
+        long changes = 0;
+        try (WebHdfsSnapshotDiff diff = root.getSnapshotDiff(lastSnapshot, snapshot)) {
+            while (diff.hasNext()) {
+                listener.onChange(diff.next());
+                changes++;
+            }
+            if (!diff.isComplete()) {
+                throw new WebHdfsClient.WebHdfsException(
+                    "Diff of " + root + " between '" + lastSnapshot + "' and '" + snapshot + "' ended early"
+                );
+            }
+        } catch (RuntimeException e) {
+            try {
+                root.deleteSnapshot(snapshot);
+            } catch (WebHdfsClient.WebHdfsException deleteError) {
+                e.addSuppressed(deleteError);
+            }
+            throw e;
+        }
+
+        if (deleteConsumed) {
+            root.deleteSnapshot(lastSnapshot);
+        }
+        logger.debug("{} changes in {} between '{}' and '{}'", changes, root, lastSnapshot, snapshot);
+        lastSnapshot = snapshot;
+        return changes;
+    }
+
+    /**
+     * Replays the changes between each pair of consecutive snapshots of the given list.
+     */
+    public long replay(List<String> snapshots, Listener listener) {
+        long changes = 0;
+        for (int i = 1; i < snapshots.size(); i++) {
+            try (WebHdfsSnapshotDiff diff = root.getSnapshotDiff(snapshots.get(i - 1), snapshots.get(i))) {
+                while (diff.hasNext()) {
+                    listener.onChange(diff.next());
+                    changes++;
+                }
+            }
+        }
+        return changes;
+    }
+}
@@ -2,21 +2,20 @@ package ru.rambler.webhdfs;
 
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.List;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
-import org.apache.http.HttpResponse;
-import org.apache.http.NameValuePair;
 import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpUriRequest;
-import org.apache.http.client.methods.RequestBuilder;
-import org.apache.http.client.utils.URIBuilder;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
-import org.apache.http.util.EntityUtils;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.slf4j.Logger;
@@ -29,26 +28,39 @@ public class WebHdfsClient {
     int timeout;
     int numRetries;
 
-    HttpClient client;
+    WebHdfsTransport transport;
+    String[] hostPrefixes;
+    String userFragment;
+    ConcurrentMap<String, String> operationFragments = new ConcurrentHashMap<String, String>();
+    WebHdfsBlockCache blockCache;
+    Executor executor;
+    WebHdfsBufferPool bufferPool;
     final Logger logger = LoggerFactory.getLogger(WebHdfsClient.class);
 
     public static int DEFAULT_TIMEOUT = 60;
     public static int DEFAULT_RETRIES = 3;
     public static String API_PATH = "/webhdfs/v1/";
 
-    public WebHdfsClient(URI[] hosts, String username, int timeout, int retries, HttpClient client) {
+    public WebHdfsClient(URI[] hosts, String username, int timeout, int retries, WebHdfsTransport transport) {
         this.hosts = hosts;
         this.username = username;
         this.timeout = timeout;
         this.numRetries = retries;
-        this.client = client;
+        this.transport = transport;
+        this.hostPrefixes = hostPrefixes(hosts);
+        this.userFragment = username != null ? "&user.name=" + WebHdfsQuery.encodeValue(username) : "&user.name";
+    }
+
+    public WebHdfsClient(URI[] hosts, String username, int timeout, int retries, HttpClient client) {
+        this(hosts, username, timeout, retries, new WebHdfsApacheTransport(client));
+    }
+
+    public static WebHdfsClient initiate(URI[] hosts, String username, WebHdfsTransport transport) {
+        return new WebHdfsClient(hosts, username, DEFAULT_TIMEOUT, DEFAULT_RETRIES, transport);
     }
 
     public static WebHdfsClient initiate(URI[] hosts, String username) {
-        HttpClientBuilder builder = HttpClientBuilder.create();
-        builder.setConnectionManager(new PoolingHttpClientConnectionManager());
-        builder.setConnectionManagerShared(true);
-        return new WebHdfsClient(hosts, username, DEFAULT_TIMEOUT, DEFAULT_RETRIES, builder.build());
+        return initiate(hosts, username, WebHdfsApacheTransport.create());
     }
 
     public static class WebHdfsException extends RuntimeException {
@@ -133,87 +145,234 @@ public class WebHdfsClient {
         return username;
     }
 
-    protected HttpResponse request(HttpUriRequest request) {
-        logger.debug("HTTP [{}] '{}'", request.getMethod(), request.getURI());
+    public WebHdfsTransport getTransport() {
+        return transport;
+    }
+
+    public WebHdfsBlockCache getBlockCache() {
+        return blockCache;
+    }
+
+    /**
+     * Routes ranged {@link WebHdfsResource#open(Long, Long, Long)} reads through the cache. Whole-file open() keeps
+     * streaming directly.
+     */
+    public void setBlockCache(WebHdfsBlockCache blockCache) {
+        this.blockCache = blockCache;
+    }
+
+    /**
+     * Executor running the blocking parts of the reactive reads and writes and of the compressed streams. Unless set,
+     * it is an unbounded pool of daemon threads that grows to one thread per running transfer, two per compressed
+     * stream, and drops them after a minute idle. A bounded executor caps the threads but queues transfers behind
+     * each other, and the two tasks of a compressed stream must not wait on each other in its queue.
+     */
+    public synchronized Executor getExecutor() {
+        if (executor == null) {
+            executor = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "webhdfs-io");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+
+    public synchronized void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Buffers shared by the compressed streams of this client; {@link WebHdfsBufferPool#create()} unless set.
+     */
+    public synchronized WebHdfsBufferPool getBufferPool() {
+        if (bufferPool == null) {
+            bufferPool = WebHdfsBufferPool.create();
+        }
+        return bufferPool;
+    }
+
+    public synchronized void setBufferPool(WebHdfsBufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * The timeout given to every request; transports use it to connect and to wait for the response.
+     */
+    Duration requestTimeout() {
+        return timeout > 0 ? Duration.ofSeconds(timeout) : null;
+    }
+
+    protected WebHdfsTransport.Response request(WebHdfsTransport.Request request) {
+        logger.debug("HTTP [{}] '{}'", request.getMethod(), request.getUri());
+        try {
+            return checked(this.transport.execute(request));
+        } catch (IOException exc) {
+            throw new NetworkError(exc);
+        }
+    }
+
+    /**
+     * Like {@link #request(WebHdfsTransport.Request)}, through {@link WebHdfsTransport#executeAsync}.
+     */
+    protected CompletableFuture<WebHdfsTransport.Response> requestAsync(
+        WebHdfsTransport.Request request, Executor executor
+    ) {
+        logger.debug("HTTP [{}] '{}' async", request.getMethod(), request.getUri());
+        CompletableFuture<WebHdfsTransport.Response> sent;
         try {
-            HttpResponse response = this.client.execute(request);
-            int code = response.getStatusLine().getStatusCode();
-            logger.debug("CODE [{}]", code);
-
-            if (code >= 400) {
-                String message = EntityUtils.toString(response.getEntity());
-                JSONObject json = null;
-                try {
-                    json = new JSONObject(message);
-                    message = json.getJSONObject("RemoteException").toString();
-                } catch (JSONException e) {
+            sent = this.transport.executeAsync(request, executor);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return sent.handle((response, error) -> {
+            try {
+                if (error != null) {
+                    Throwable cause = unwrap(error);
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                    throw new CompletionException(cause);
                 }
+                return checked(response);
+            } catch (IOException exc) {
+                throw new NetworkError(exc);
+            }
+        });
+    }
+
+    /**
+     * The failure behind the wrappers of futures and of transports that cannot throw IOException.
+     */
+    static Throwable unwrap(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof UncheckedIOException)
+            && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+
+    /**
+     * Returns a successful response, or turns an error status into the matching {@link WebHdfsException}.
+     */
+    WebHdfsTransport.Response checked(WebHdfsTransport.Response response) throws IOException {
+        int code = response.getStatusCode();
+        logger.debug("CODE [{}]", code);
+
+        if (code >= 400) {
+            String message = response.readString();
+            JSONObject json = null;
+            try {
+                json = new JSONObject(message);
+                message = json.getJSONObject("RemoteException").toString();
+            } catch (JSONException e) {
+            }
 
-                if (code == 400) {
-                    throw new BadRequest(message);
-                } else if (code == 401) {
-                    throw new Unauthorized(message);
-                } else if (code == 403) {
-                    if (json != null) {
-                        try {
-                            String exc = json.getJSONObject("RemoteException").getString("exception");
-                            if (exc.equals("StandbyException")) {
-                                throw new StandbyException();
-                            } else if (exc.equals("FileAlreadyExistsException")) {
-                                throw new AlreadyExists(message);
-                            }
-                        } catch (JSONException e) {
+            if (code == 400) {
+                throw new BadRequest(message);
+            } else if (code == 401) {
+                throw new Unauthorized(message);
+            } else if (code == 403) {
+                if (json != null) {
+                    try {
+                        String exc = json.getJSONObject("RemoteException").getString("exception");
+                        if (exc.equals("StandbyException")) {
+                            throw new StandbyException();
+                        } else if (exc.equals("FileAlreadyExistsException")) {
+                            throw new AlreadyExists(message);
                         }
+                    } catch (JSONException e) {
                     }
-                    throw new Forbidden(message);
-                } else if (code == 404) {
-                    throw new NotFound(message);
-                } else if (code == 500) {
-                    if (json != null) {
-                        try {
-                            String exc = json.getJSONObject("RemoteException").getString("exception");
-                            if (exc.equals("FileAlreadyExistsException")) {
-                                throw new AlreadyExists(message);
-                            }
-                        } catch (JSONException e) {
+                }
+                throw new Forbidden(message);
+            } else if (code == 404) {
+                throw new NotFound(message);
+            } else if (code == 500) {
+                if (json != null) {
+                    try {
+                        String exc = json.getJSONObject("RemoteException").getString("exception");
+                        if (exc.equals("FileAlreadyExistsException")) {
+                            throw new AlreadyExists(message);
                         }
+                    } catch (JSONException e) {
                     }
-                    throw new ServerError(message);
-                } else {
-                    throw new RemoteException(
-                        String.format("HTTP code: %s\n Message: %s", Integer.toString(code), message)
-                    );
                 }
+                throw new ServerError(message);
+            } else {
+                throw new RemoteException(
+                    String.format("HTTP code: %s\n Message: %s", Integer.toString(code), message)
+                );
             }
+        }
 
-            return response;
-        } catch (IOException exc) {
-            throw new NetworkError(exc);
+        return response;
+    }
+
+    /**
+     * Scheme, authority and {@link #API_PATH} of every host. Requests always go to the API path, so a host with a
+     * path, query or fragment of its own is rejected rather than silently changed.
+     */
+    static String[] hostPrefixes(URI[] hosts) {
+        if (hosts == null) {
+            return new String[0];
         }
+        String[] prefixes = new String[hosts.length];
+        for (int i = 0; i < hosts.length; i++) {
+            URI host = hosts[i];
+            String path = host.getRawPath();
+            if (host.getScheme() == null || host.getRawAuthority() == null) {
+                throw new IllegalArgumentException("Host '" + host + "' has no scheme or authority");
+            }
+            if (path != null && !path.isEmpty() && !path.equals("/") || host.getRawQuery() != null
+                || host.getRawFragment() != null) {
+                throw new IllegalArgumentException("Host '" + host + "' must not have a path, query or fragment");
+            }
+            prefixes[i] = host.getScheme() + "://" + host.getRawAuthority() + API_PATH;
+        }
+        return prefixes;
+    }
+
+    String operationFragment(String operation) {
+        String fragment = operationFragments.get(operation);
+        if (fragment == null) {
+            fragment = "?op=" + WebHdfsQuery.encodeValue(operation) + userFragment;
+            operationFragments.putIfAbsent(operation, fragment);
+        }
+        return fragment;
     }
 
+    /**
+     * @param hostPrefix  scheme, authority and API path of the host
+     * @param encodedPath path relative to the API path, already percent-encoded
+     * @param query       further parameters, or null for none
+     */
     protected URI buildURI(
-        URI host, String pathStr, String operation, List<NameValuePair> params
+        String hostPrefix, String encodedPath, String operation, WebHdfsQuery query
     ) throws URISyntaxException {
-        URIBuilder uriBuilder = new URIBuilder(host).setPath(API_PATH + pathStr).addParameter("op", operation)
-            .addParameter("user.name", this.getUsername());
-        if (params != null) {
-            uriBuilder.addParameters(params);
+        String fragment = operationFragment(operation);
+        int length = hostPrefix.length() + encodedPath.length() + fragment.length();
+        StringBuilder uri = new StringBuilder(length + (query != null ? query.length() : 0));
+        uri.append(hostPrefix).append(encodedPath).append(fragment);
+        if (query != null) {
+            query.appendTo(uri);
         }
-        return uriBuilder.build();
+        return new URI(uri.toString());
     }
 
-    protected HttpResponse requestAny(String method, Path path, String operation, List<NameValuePair> params) {
-        String pathStr = path.toAbsolutePath().toString().replaceAll("^/", "");
+    protected WebHdfsTransport.Response requestAny(
+        String method, String encodedPath, String operation, WebHdfsQuery query
+    ) {
+        URI[] hosts = this.getHosts();
+        // Subclasses may pick the hosts per request
+        String[] prefixes = hosts == this.hosts ? this.hostPrefixes : hostPrefixes(hosts);
 
         Exception lastException = null;
-        for (URI host : this.getHosts()) {
+        for (int i = 0; i < prefixes.length; i++) {
             try {
-                URI requestURI = buildURI(host, pathStr, operation, params);
-                HttpUriRequest request = RequestBuilder.create(method).setUri(requestURI).build();
-                return this.request(request);
+                URI requestURI = buildURI(prefixes[i], encodedPath, operation, query);
+                return this.request(new WebHdfsTransport.Request(method, requestURI, null, requestTimeout()));
             } catch (NetworkError e) {
-                logger.info(String.format("Host '%s' is inactive, or unreachable", host));
+                logger.info("Host '{}' is inactive, or unreachable", hosts[i]);
                 lastException = e;
                 continue;
             } catch (URISyntaxException e) {
@@ -224,14 +383,61 @@ public class WebHdfsClient {
         throw new ActiveHostNotFound("Not found active host", lastException);
     }
 
-    protected JSONObject requestAnyJson(String method, Path path, String operation, List<NameValuePair> params) {
+    /**
+     * Like {@link #requestAny(String, String, String, WebHdfsQuery)}, through {@link WebHdfsTransport#executeAsync}.
+     */
+    protected CompletableFuture<WebHdfsTransport.Response> requestAnyAsync(
+        String method, String encodedPath, String operation, WebHdfsQuery query, Executor executor
+    ) {
+        URI[] hosts = this.getHosts();
+        String[] prefixes = hosts == this.hosts ? this.hostPrefixes : hostPrefixes(hosts);
+        return requestAnyAsync(hosts, prefixes, 0, method, encodedPath, operation, query, executor, null);
+    }
+
+    CompletableFuture<WebHdfsTransport.Response> requestAnyAsync(
+        URI[] hosts, String[] prefixes, int i, String method, String encodedPath, String operation, WebHdfsQuery query,
+        Executor executor, Exception lastException
+    ) {
+        if (i == prefixes.length) {
+            return CompletableFuture.failedFuture(new ActiveHostNotFound("Not found active host", lastException));
+        }
+        URI requestURI;
+        try {
+            requestURI = buildURI(prefixes[i], encodedPath, operation, query);
+        } catch (URISyntaxException e) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Invalid assembled URI", e));
+        }
+        return requestAsync(new WebHdfsTransport.Request(method, requestURI, null, requestTimeout()), executor)
+            .thenApply(CompletableFuture::completedFuture)
+            .exceptionally(e -> {
+                Throwable cause = unwrap(e);
+                if (!(cause instanceof NetworkError)) {
+                    return CompletableFuture.failedFuture(cause);
+                }
+                logger.info("Host '{}' is inactive, or unreachable", hosts[i]);
+                return requestAnyAsync(
+                    hosts, prefixes, i + 1, method, encodedPath, operation, query, executor, (NetworkError) cause
+                );
+            })
+            .thenCompose(next -> next);
+    }
+
+    protected WebHdfsTransport.Response requestAny(String method, Path path, String operation, WebHdfsQuery query) {
+        return requestAny(method, WebHdfsQuery.encodePath(path), operation, query);
+    }
+
+    protected JSONObject requestAnyJson(String method, String encodedPath, String operation, WebHdfsQuery query) {
         try {
-            return new JSONObject(EntityUtils.toString(this.requestAny(method, path, operation, params).getEntity()));
+            return new JSONObject(this.requestAny(method, encodedPath, operation, query).readString());
         } catch (IOException e) {
             throw new NetworkError(e);
         }
     }
 
+    protected JSONObject requestAnyJson(String method, Path path, String operation, WebHdfsQuery query) {
+        return requestAnyJson(method, WebHdfsQuery.encodePath(path), operation, query);
+    }
+
     public WebHdfsResource resource(Path path) {
         return new WebHdfsResource(this, path);
     }
@@ -0,0 +1,161 @@
+package ru.rambler.webhdfs;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+
+/**
+ * Stream compression format, recognized by file extension through {@link WebHdfsCodecs}. The bundled codecs use the
+ * zlib built into the JVM and produce files readable by Hadoop's GzipCodec and DefaultCodec.
+ */
+public interface WebHdfsCodec {
+    String getName();
+
+    /**
+     * File extension including the dot, e.g. ".gz".
+     */
+    String getExtension();
+
+    InputStream decompress(InputStream in, int bufferSize) throws IOException;
+
+    /**
+     * Decompresses reading through a buffer of the pool when one is free, given back on close. Codecs that cannot
+     * take a buffer allocate their own of the pool's size.
+     */
+    default InputStream decompress(InputStream in, WebHdfsBufferPool pool) throws IOException {
+        return decompress(in, pool.getBufferSize());
+    }
+
+    OutputStream compress(OutputStream out, int bufferSize) throws IOException;
+
+    WebHdfsCodec GZIP = new WebHdfsCodec() {
+        @Override
+        public String getName() {
+            return "gzip";
+        }
+
+        @Override
+        public String getExtension() {
+            return ".gz";
+        }
+
+        @Override
+        public InputStream decompress(InputStream in, int bufferSize) throws IOException {
+            return new GZIPInputStream(in, bufferSize);
+        }
+
+        @Override
+        public InputStream decompress(InputStream in, WebHdfsBufferPool pool) throws IOException {
+            byte[] pooled = pool.poll();
+            byte[] buffer = pooled != null ? pooled : new byte[pool.getBufferSize()];
+            try {
+                // The header is read from the source directly, so the input buffer can be swapped in afterwards
+                return new GZIPInputStream(in, 1) {
+                    boolean released = false;
+
+                    {
+                        buf = buffer;
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            if (pooled != null && !released) {
+                                released = true;
+                                pool.release(pooled);
+                            }
+                        }
+                    }
+                };
+            } catch (IOException | RuntimeException e) {
+                if (pooled != null) {
+                    pool.release(pooled);
+                }
+                throw e;
+            }
+        }
+
+        @Override
+        public OutputStream compress(OutputStream out, int bufferSize) throws IOException {
+            return new GZIPOutputStream(out, bufferSize);
+        }
+    };
+
+    WebHdfsCodec DEFLATE = new WebHdfsCodec() {
+        @Override
+        public String getName() {
+            return "deflate";
+        }
+
+        @Override
+        public String getExtension() {
+            return ".deflate";
+        }
+
+        @Override
+        public InputStream decompress(InputStream in, int bufferSize) {
+            Inflater inflater = new Inflater();
+            return new InflaterInputStream(in, inflater, bufferSize) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        inflater.end();
+                    }
+                }
+            };
+        }
+
+        @Override
+        public InputStream decompress(InputStream in, WebHdfsBufferPool pool) {
+            byte[] pooled = pool.poll();
+            Inflater inflater = new Inflater();
+            return new InflaterInputStream(in, inflater, 1) {
+                boolean released = false;
+
+                {
+                    buf = pooled != null ? pooled : new byte[pool.getBufferSize()];
+                }
+
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        inflater.end();
+                        if (pooled != null && !released) {
+                            released = true;
+                            pool.release(pooled);
+                        }
+                    }
+                }
+            };
+        }
+
+        @Override
+        public OutputStream compress(OutputStream out, int bufferSize) {
+            Deflater deflater = new Deflater();
+            return new DeflaterOutputStream(out, deflater, bufferSize) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        deflater.end();
+                    }
+                }
+            };
+        }
+    };
+}
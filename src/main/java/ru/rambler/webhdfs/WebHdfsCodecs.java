@@ -0,0 +1,47 @@
+package ru.rambler.webhdfs;
+
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Registry of the codecs known to {@link WebHdfsResource#openDecompressed()} and
+ * {@link WebHdfsResource#createCompressed(boolean)}. Codecs for other formats, e.g. zstd or lz4 backed by a library of
+ * the application's choice, are plugged in with {@link #register(WebHdfsCodec)}.
+ */
+public class WebHdfsCodecs {
+    static final Map<String, WebHdfsCodec> byExtension = new ConcurrentHashMap<String, WebHdfsCodec>();
+    static final Map<String, WebHdfsCodec> byName = new ConcurrentHashMap<String, WebHdfsCodec>();
+
+    static {
+        register(WebHdfsCodec.GZIP);
+        register(WebHdfsCodec.DEFLATE);
+    }
+
+    /**
+     * Adds a codec, replacing any registered one with the same name or extension.
+     */
+    public static void register(WebHdfsCodec codec) {
+        byExtension.put(codec.getExtension(), codec);
+        byName.put(codec.getName(), codec);
+    }
+
+    public static WebHdfsCodec forName(String name) {
+        return byName.get(name);
+    }
+
+    /**
+     * Codec of the file extension, or null for uncompressed files.
+     */
+    public static WebHdfsCodec forPath(Path path) {
+        Path fileName = path.getFileName();
+        if (fileName == null) {
+            return null;
+        }
+        String name = fileName.toString();
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? null : byExtension.get(name.substring(dot));
+    }
+}
@@ -0,0 +1,383 @@
+package ru.rambler.webhdfs;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Output stream uploading to a CREATE request through a three-stage pipeline: the writing thread fills chunks, a
+ * compressor task runs them through the codec, and an uploader task streams the compressed chunks to the DataNode.
+ * Chunks are reserved from the client's {@link WebHdfsBufferPool} when the stream opens and given back once both tasks
+ * end, or allocated for the stream alone when the pool is short; each stage blocks when it runs ahead. Both tasks hold
+ * an executor thread for the whole upload, so the executor must start them without queueing, as the client's default
+ * does; the stream fails to open if they do not start within {@link #DEFAULT_START_TIMEOUT} milliseconds. Nothing is
+ * guaranteed to reach HDFS before {@link #close()}, which also reports any compression or upload failure.
+ */
+public class WebHdfsCompressedOutputStream extends OutputStream {
+    public static int DEFAULT_CHUNKS = 4;
+    public static long DEFAULT_START_TIMEOUT = 5000;
+
+    static final Chunk END = new Chunk(null, -1);
+
+    WebHdfsResource resource;
+    WebHdfsCodec codec;
+    WebHdfsBufferPool pool;
+    List<byte[]> reserved;
+    int chunkSize;
+    BlockingQueue<byte[]> rawPool;
+    BlockingQueue<byte[]> compressedPool;
+    BlockingQueue<Chunk> raw = new LinkedBlockingQueue<Chunk>();
+    BlockingQueue<Chunk> compressed = new LinkedBlockingQueue<Chunk>();
+    byte[] current;
+    int position;
+    boolean closed = false;
+    volatile Throwable error;
+    CompletableFuture<Void> compressor;
+    CompletableFuture<Void> uploader;
+    CountDownLatch started = new CountDownLatch(2);
+    final Logger logger = LoggerFactory.getLogger(WebHdfsCompressedOutputStream.class);
+
+    static class Chunk {
+        byte[] data;
+        int length;
+
+        Chunk(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Takes 2 * chunks buffers of the pool, or allocates them if it is short, and starts the compressor and uploader
+     * on the executor. A null codec uploads the data as is.
+     *
+     * @throws RejectedExecutionException if the executor refuses the tasks or does not start them in time
+     */
+    public WebHdfsCompressedOutputStream(
+        WebHdfsResource resource, WebHdfsCodec codec, WebHdfsQuery params, WebHdfsBufferPool pool, int chunks,
+        Executor executor
+    ) throws InterruptedIOException {
+        this.resource = resource;
+        this.codec = codec;
+        this.pool = pool;
+        this.chunkSize = pool.getBufferSize();
+        List<byte[]> buffers = pool.reserve(2 * chunks);
+        if (buffers != null) {
+            this.reserved = buffers;
+        } else {
+            logger.debug("{} short of buffers, allocating {} for {}", pool, 2 * chunks, resource.getPath());
+            buffers = new ArrayList<byte[]>(2 * chunks);
+            for (int i = 0; i < 2 * chunks; i++) {
+                buffers.add(new byte[chunkSize]);
+            }
+        }
+        this.rawPool = new ArrayBlockingQueue<byte[]>(chunks, false, buffers.subList(0, chunks));
+        this.compressedPool = new ArrayBlockingQueue<byte[]>(chunks, false, buffers.subList(chunks, 2 * chunks));
+
+        try {
+            this.uploader = CompletableFuture.runAsync(() -> upload(params), executor);
+        } catch (RuntimeException e) {
+            release();
+            throw e;
+        }
+        try {
+            this.compressor = CompletableFuture.runAsync(this::compress, executor);
+        } catch (RuntimeException e) {
+            compressor = CompletableFuture.completedFuture(null);
+            abandon(e);
+            throw e;
+        }
+
+        try {
+            if (!started.await(DEFAULT_START_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                RejectedExecutionException e = new RejectedExecutionException(
+                    "Executor did not start uploading " + resource.getPath() + " in " + DEFAULT_START_TIMEOUT
+                        + " ms, it must run tasks without queueing"
+                );
+                abandon(e);
+                throw e;
+            }
+        } catch (InterruptedException e) {
+            abandon(e);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while starting upload of " + resource.getPath());
+        }
+    }
+
+    /**
+     * Fails a stream that did not open: both ends of the pipeline are closed, so each task ends as soon as it runs,
+     * and the buffers go back once both are done.
+     */
+    void abandon(Throwable e) {
+        fail(e);
+        raw.add(END);
+        compressed.add(END);
+        CompletableFuture.allOf(compressor, uploader).whenComplete((result, error) -> release());
+    }
+
+    void release() {
+        if (reserved != null) {
+            pool.release(reserved);
+            reserved = null;
+        }
+    }
+
+    void fail(Throwable e) {
+        if (error == null) {
+            error = e;
+        }
+    }
+
+    void compress() {
+        started.countDown();
+        ChunkOutputStream sink = new ChunkOutputStream();
+        Chunk chunk = null;
+        try (OutputStream out = codec != null ? codec.compress(sink, chunkSize) : sink) {
+            while ((chunk = raw.take()) != END) {
+                out.write(chunk.data, 0, chunk.length);
+                rawPool.put(chunk.data);
+            }
+        } catch (Throwable e) {
+            fail(e);
+            try {
+                // Let a blocked writer finish so that close() can report the failure, unless the codec failed
+                // flushing after the end was already taken
+                while (chunk != END && (chunk = raw.take()) != END) {
+                    rawPool.put(chunk.data);
+                }
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            }
+        } finally {
+            sink.end();
+        }
+    }
+
+    void upload(WebHdfsQuery params) {
+        started.countDown();
+        ChunkInputStream input = new ChunkInputStream();
+        try {
+            if (error == null) {
+                resource.createInner(WebHdfsTransport.Body.of(input), params);
+            }
+        } catch (Throwable e) {
+            fail(e);
+        } finally {
+            // Unblock the compressor if the request ended before consuming everything
+            try {
+                Chunk chunk = input.chunk;
+                while (chunk != END) {
+                    if (chunk != null) {
+                        compressedPool.put(chunk.data);
+                    }
+                    chunk = compressed.take();
+                }
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Compressor side of the pipeline, cutting the codec output into pooled chunks.
+     */
+    class ChunkOutputStream extends OutputStream {
+        byte[] buffer;
+        int length;
+        boolean ended = false;
+
+        void pass() throws IOException {
+            try {
+                compressed.put(new Chunk(buffer, length));
+                buffer = null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while compressing " + resource.getPath());
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (error != null) {
+                    throw new IOException("Upload of " + resource.getPath() + " failed", error);
+                }
+                if (buffer == null) {
+                    try {
+                        buffer = compressedPool.take();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while compressing " + resource.getPath());
+                    }
+                    length = 0;
+                }
+                int n = Math.min(len, buffer.length - length);
+                System.arraycopy(b, off, buffer, length, n);
+                length += n;
+                off += n;
+                len -= n;
+                if (length == buffer.length) {
+                    pass();
+                }
+            }
+        }
+
+        void end() {
+            if (ended) {
+                return;
+            }
+            ended = true;
+            try {
+                if (buffer != null && length > 0 && error == null) {
+                    pass();
+                }
+                compressed.put(END);
+            } catch (IOException | InterruptedException e) {
+                fail(e);
+            }
+        }
+    }
+
+    /**
+     * Uploader side of the pipeline, feeding the compressed chunks to the request entity.
+     */
+    class ChunkInputStream extends InputStream {
+        Chunk chunk;
+        int offset;
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (chunk == END) {
+                return -1;
+            }
+            while (chunk == null || offset == chunk.length) {
+                try {
+                    if (chunk != null) {
+                        compressedPool.put(chunk.data);
+                        chunk = null;
+                    }
+                    chunk = compressed.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while uploading " + resource.getPath());
+                }
+                offset = 0;
+                if (chunk == END) {
+                    if (error != null) {
+                        throw new IOException("Compression for " + resource.getPath() + " failed", error);
+                    }
+                    return -1;
+                }
+            }
+            int n = Math.min(len, chunk.length - offset);
+            System.arraycopy(chunk.data, offset, b, off, n);
+            offset += n;
+            return n;
+        }
+    }
+
+    void check() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (error != null) {
+            throw new IOException("Writing " + resource.getPath() + " failed", error);
+        }
+    }
+
+    void handOff() throws IOException {
+        try {
+            raw.put(new Chunk(current, position));
+            current = null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing " + resource.getPath());
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        check();
+        while (len > 0) {
+            if (current == null) {
+                try {
+                    current = rawPool.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while writing " + resource.getPath());
+                }
+                position = 0;
+                check();
+            }
+            int n = Math.min(len, current.length - position);
+            System.arraycopy(b, off, current, position, n);
+            position += n;
+            off += n;
+            len -= n;
+            if (position == current.length) {
+                handOff();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (current != null && position > 0) {
+                handOff();
+            }
+            raw.put(END);
+            CompletableFuture.allOf(compressor, uploader).get();
+        } catch (InterruptedException e) {
+            // The tasks may still hold chunks, so these buffers are not given back
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while finishing " + resource.getPath());
+        } catch (ExecutionException e) {
+            fail(e.getCause());
+        }
+        release();
+        if (error != null) {
+            if (error instanceof RuntimeException) {
+                throw (RuntimeException) error;
+            }
+            throw new IOException("Writing " + resource.getPath() + " failed", error);
+        }
+    }
+}
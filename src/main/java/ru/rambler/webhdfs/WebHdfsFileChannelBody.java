@@ -0,0 +1,81 @@
+package ru.rambler.webhdfs;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+
+/**
+ * Sends a region of a local file with an exact Content-Length. Reads are positional, so the body is repeatable and
+ * does not move the channel position. Written out, the region goes through {@link FileChannel#transferTo} in steps of
+ * bufferSize bytes.
+ */
+public class WebHdfsFileChannelBody implements WebHdfsTransport.Body {
+    FileChannel channel;
+    long position;
+    long length;
+    int bufferSize;
+
+    public WebHdfsFileChannelBody(FileChannel channel, long position, long length, int bufferSize) {
+        this.channel = channel;
+        this.position = position;
+        this.length = length;
+        this.bufferSize = bufferSize;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getLength() {
+        return length;
+    }
+
+    @Override
+    public InputStream open() {
+        return new InputStream() {
+            long offset = position;
+            long end = position + length;
+
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (offset >= end) {
+                    return -1;
+                }
+                int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - offset)), offset);
+                if (n > 0) {
+                    offset += n;
+                }
+                return n;
+            }
+        };
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        WritableByteChannel target = Channels.newChannel(out);
+        long offset = position;
+        long end = position + length;
+        while (offset < end) {
+            long n = channel.transferTo(offset, Math.min(bufferSize, end - offset), target);
+            if (n <= 0) {
+                throw new IOException("File is shorter than the declared content length");
+            }
+            offset += n;
+        }
+        out.flush();
+    }
+}
@@ -0,0 +1,178 @@
+package ru.rambler.webhdfs;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Endless stream over a growing file, like tail -f. New data is fetched with ranged OPEN requests covering only the
+ * bytes past the current position; while the file does not grow, GETFILESTATUS polls back off exponentially from the
+ * minimal to the maximal delay. The fileId is taken when the stream opens; with rotation detection on, a new fileId or
+ * a shrunk file restarts reading from zero. Reads block until data arrives and return -1 only after {@link #close()}.
+ */
+public class WebHdfsFollowInputStream extends InputStream {
+    public static long DEFAULT_MIN_DELAY = 100;
+    public static long DEFAULT_MAX_DELAY = 10000;
+
+    WebHdfsResource resource;
+    long position;
+    long fileId = -1;
+    Long bufferSize;
+    long minDelay = DEFAULT_MIN_DELAY;
+    long maxDelay = DEFAULT_MAX_DELAY;
+    long delay = DEFAULT_MIN_DELAY;
+    boolean detectRotation = true;
+    volatile InputStream current;
+    volatile boolean closed = false;
+    final Object lock = new Object();
+    final Logger logger = LoggerFactory.getLogger(WebHdfsFollowInputStream.class);
+
+    public WebHdfsFollowInputStream(WebHdfsResource resource, long position, Long bufferSize) {
+        this.resource = resource;
+        this.position = position;
+        this.bufferSize = bufferSize;
+        try {
+            // Pin the file being followed, so that a replacement before the first poll is noticed too
+            this.fileId = resource.getFileStatus().getLong("fileId");
+        } catch (WebHdfsClient.NotFound e) {
+            // Not created yet: follow whichever file appears first
+        }
+    }
+
+    public WebHdfsFollowInputStream pollDelay(long minDelay, long maxDelay) {
+        this.minDelay = minDelay;
+        this.maxDelay = Math.max(minDelay, maxDelay);
+        this.delay = minDelay;
+        return this;
+    }
+
+    public WebHdfsFollowInputStream detectRotation(boolean detectRotation) {
+        this.detectRotation = detectRotation;
+        return this;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    public long getFileId() {
+        return fileId;
+    }
+
+    /**
+     * Opens a range with the new bytes, or returns false when the file did not grow.
+     */
+    boolean poll() throws IOException {
+        JSONObject status;
+        try {
+            status = resource.getFileStatus();
+        } catch (WebHdfsClient.NotFound e) {
+            // Rotated away and not recreated yet
+            return false;
+        }
+
+        long id = status.getLong("fileId");
+        long length = status.getLong("length");
+        if ((fileId >= 0 && id != fileId) || length < position) {
+            if (!detectRotation) {
+                throw new IOException("File " + resource.getPath() + " was replaced or truncated");
+            }
+            logger.info("File {} rotated at position {}", resource.getPath(), position);
+            position = 0;
+        }
+        fileId = id;
+
+        if (length <= position) {
+            return false;
+        }
+        current = resource.openRange(position, length - position, bufferSize);
+        return true;
+    }
+
+    void await() throws IOException {
+        try {
+            synchronized (lock) {
+                if (!closed) {
+                    lock.wait(delay);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while following " + resource.getPath());
+        }
+        delay = Math.min(delay * 2, maxDelay);
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        try {
+            while (!closed) {
+                if (current != null) {
+                    int n = current.read(b, off, len);
+                    if (n > 0) {
+                        position += n;
+                        return n;
+                    }
+                    current.close();
+                    current = null;
+                }
+
+                if (poll()) {
+                    delay = minDelay;
+                } else {
+                    await();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // close() from another thread aborts a pending request, which is the end of stream rather than a failure
+            if (!closed) {
+                throw e;
+            }
+        }
+        InputStream open = current;
+        current = null;
+        if (open != null) {
+            try {
+                open.close();
+            } catch (IOException e) {
+                logger.debug("Failed closing {} after close", resource.getPath(), e);
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return current != null && !closed ? current.available() : 0;
+    }
+
+    /**
+     * Stops following. Safe to call from another thread, in which case a blocked read returns -1 shortly.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        InputStream open = current;
+        if (open != null) {
+            open.close();
+        }
+    }
+}
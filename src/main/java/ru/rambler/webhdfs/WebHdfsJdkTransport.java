@@ -0,0 +1,212 @@
+package ru.rambler.webhdfs;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+
+
+/**
+ * Transport over the java.net.http client of the JDK, which needs no third-party libraries. HTTP/2 is used when the
+ * server offers it and HTTP/1.1 otherwise. Redirects are followed by hand and only for GET, so that the Location of a
+ * CREATE or APPEND reaches the caller.
+ *
+ * <p>
+ * The timeout of a request, which {@link WebHdfsClient} takes from its own, is the connect timeout and also limits
+ * the wait for the response headers. Requests with a body only get the connect timeout, since the JDK would count
+ * the upload against the limit too. The JDK client has a fixed connect timeout, so unless a client is given one is
+ * built per timeout. Bodies are read through {@link Body#open()} in chunks of the JDK's own size, so the transfer
+ * buffer size passed to {@link WebHdfsResource#upload(java.nio.channels.FileChannel, Boolean, Long, Short, String,
+ * Long)} is not used here, while the buffersize parameter still reaches HDFS.
+ *
+ * <p>
+ * {@link #executeAsync(Request, Executor)} is non-blocking: the reactive reads and writes of {@link WebHdfsResource}
+ * hold no thread while waiting on the network.
+ */
+public class WebHdfsJdkTransport implements WebHdfsTransport {
+    public static int MAX_REDIRECTS = 5;
+
+    HttpClient client;
+    Duration timeout;
+    ConcurrentMap<Duration, HttpClient> clients = new ConcurrentHashMap<Duration, HttpClient>();
+
+    /**
+     * Sends every request through the given client, whose connect timeout applies. The timeout is used for requests
+     * without one of their own and may be null.
+     */
+    public WebHdfsJdkTransport(HttpClient client, Duration timeout) {
+        this.client = client;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Builds clients as needed, connecting within the timeout of each request or the given one.
+     */
+    public static WebHdfsJdkTransport create(Duration timeout) {
+        return new WebHdfsJdkTransport(null, timeout);
+    }
+
+    public static WebHdfsJdkTransport create() {
+        return create(Duration.ofSeconds(WebHdfsClient.DEFAULT_TIMEOUT));
+    }
+
+    static HttpClient build(Duration connectTimeout) {
+        HttpClient.Builder builder = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .followRedirects(HttpClient.Redirect.NEVER);
+        if (!connectTimeout.isZero()) {
+            builder.connectTimeout(connectTimeout);
+        }
+        return builder.build();
+    }
+
+    HttpClient client(Duration connectTimeout) {
+        if (client != null) {
+            return client;
+        }
+        // Zero stands for no timeout, as the map takes no null keys
+        return clients.computeIfAbsent(
+            connectTimeout != null ? connectTimeout : Duration.ZERO, WebHdfsJdkTransport::build
+        );
+    }
+
+    /**
+     * The client requests without a timeout of their own go through.
+     */
+    public HttpClient getClient() {
+        return client(timeout);
+    }
+
+    static HttpRequest.BodyPublisher publisher(Body body) {
+        if (body == null) {
+            return HttpRequest.BodyPublishers.noBody();
+        }
+        Flow.Publisher<ByteBuffer> buffers = body.publisher();
+        if (buffers != null) {
+            return body.getLength() < 0 ? HttpRequest.BodyPublishers.fromPublisher(buffers)
+                : HttpRequest.BodyPublishers.fromPublisher(buffers, body.getLength());
+        }
+        HttpRequest.BodyPublisher stream = HttpRequest.BodyPublishers.ofInputStream(() -> {
+            try {
+                return body.open();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        return body.getLength() < 0 ? stream : HttpRequest.BodyPublishers.fromPublisher(stream, body.getLength());
+    }
+
+    static boolean isRedirect(int code) {
+        return code == 301 || code == 302 || code == 303 || code == 307 || code == 308;
+    }
+
+    static Map<String, String> headers(HttpHeaders headers) {
+        Map<String, String> first = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        for (Map.Entry<String, List<String>> header : headers.map().entrySet()) {
+            if (!header.getValue().isEmpty()) {
+                first.putIfAbsent(header.getKey(), header.getValue().get(0));
+            }
+        }
+        return first;
+    }
+
+    static HttpRequest build(Request request, URI uri, Duration limit) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(uri).method(
+            request.getMethod(), publisher(request.getBody())
+        );
+        if (limit != null && request.getBody() == null) {
+            builder.timeout(limit);
+        }
+        if (request.getBody() != null) {
+            builder.header("Content-Type", "application/octet-stream");
+        }
+        return builder.build();
+    }
+
+    boolean follows(Request request, int code, String location, int redirects) {
+        return request.getMethod().equals("GET") && isRedirect(code) && location != null && redirects < MAX_REDIRECTS;
+    }
+
+    @Override
+    public Response execute(Request request) throws IOException {
+        URI uri = request.getUri();
+        Duration limit = request.getTimeout() != null ? request.getTimeout() : timeout;
+        HttpClient client = client(limit);
+        for (int redirects = 0; ; redirects++) {
+            HttpResponse<InputStream> response;
+            try {
+                response = client.send(build(request, uri, limit), HttpResponse.BodyHandlers.ofInputStream());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while requesting " + uri);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            String location = response.headers().firstValue("Location").orElse(null);
+            if (follows(request, response.statusCode(), location, redirects)) {
+                response.body().close();
+                uri = uri.resolve(location);
+                continue;
+            }
+            return new Response(response.statusCode(), headers(response.headers()), response.body());
+        }
+    }
+
+    /**
+     * Successful bodies are published as they arrive; errors and redirects are small and read whole, so that
+     * handling them blocks no thread.
+     */
+    static HttpResponse.BodySubscriber<Response> published(HttpResponse.ResponseInfo info) {
+        int code = info.statusCode();
+        Map<String, String> headers = headers(info.headers());
+        if (code >= 300) {
+            return HttpResponse.BodySubscribers.mapping(
+                HttpResponse.BodySubscribers.ofByteArray(),
+                bytes -> new Response(code, headers, new ByteArrayInputStream(bytes))
+            );
+        }
+        return HttpResponse.BodySubscribers.mapping(
+            HttpResponse.BodySubscribers.ofPublisher(), publisher -> new Response(code, headers, publisher)
+        );
+    }
+
+    CompletableFuture<Response> sendAsync(HttpClient client, Request request, URI uri, Duration limit, int redirects) {
+        return client.sendAsync(build(request, uri, limit), WebHdfsJdkTransport::published).thenCompose(sent -> {
+            Response response = sent.body();
+            String location = response.getHeader("Location");
+            if (follows(request, response.getStatusCode(), location, redirects)) {
+                response.close();
+                return sendAsync(client, request, uri.resolve(location), limit, redirects + 1);
+            }
+            return CompletableFuture.completedFuture(response);
+        });
+    }
+
+    /**
+     * Sends through {@link HttpClient#sendAsync}: a body with a publisher is streamed from it as the connection takes
+     * it, and the response body is published as it arrives. The executor is not used, the JDK client runs on its own.
+     */
+    @Override
+    public CompletableFuture<Response> executeAsync(Request request, Executor executor) {
+        Duration limit = request.getTimeout() != null ? request.getTimeout() : timeout;
+        return sendAsync(client(limit), request, request.getUri(), limit, 0);
+    }
+}
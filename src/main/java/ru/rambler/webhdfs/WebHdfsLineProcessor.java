@@ -0,0 +1,278 @@
+package ru.rambler.webhdfs;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Reads newline-delimited files split by split on a fork-join pool, with the record boundary rules of Hadoop
+ * LineRecordReader: lines end with "\n", "\r\n" or a bare "\r", a split skips its first (partial) line unless it
+ * starts at zero, and reads every line starting at or before its end, even when the line itself continues into the
+ * next split.
+ */
+public class WebHdfsLineProcessor {
+    public static int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+    ForkJoinPool pool;
+    int bufferSize;
+    Queue<byte[]> buffers = new ConcurrentLinkedQueue<byte[]>();
+    final Logger logger = LoggerFactory.getLogger(WebHdfsLineProcessor.class);
+
+    public interface RecordHandler {
+        /**
+         * Called concurrently from the pool threads. The record spans from the buffer position to its limit, without
+         * the line terminator, and the buffer is only valid until the method returns.
+         */
+        void handle(WebHdfsSplit split, long offset, ByteBuffer record);
+    }
+
+    public WebHdfsLineProcessor(ForkJoinPool pool, int bufferSize) {
+        this.pool = pool;
+        this.bufferSize = bufferSize;
+    }
+
+    public WebHdfsLineProcessor() {
+        this(ForkJoinPool.commonPool(), DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Lists the files under root matching the glob, relative to root, with the listing spread over the pool.
+     */
+    public List<WebHdfsResource> glob(WebHdfsResource root, String pattern) {
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        boolean recursive = pattern.contains("/") || pattern.contains("**");
+        // A parallel stream started from a pool task runs on that pool
+        return pool.submit(() -> root.stream(recursive).parallel()
+            .filter(res -> res.isFile() && matcher.matches(root.getPath().relativize(res.getPath())))
+            .collect(Collectors.toList())
+        ).join();
+    }
+
+    public List<WebHdfsSplit> splits(List<WebHdfsResource> files) {
+        List<WebHdfsSplit> splits = new ArrayList<WebHdfsSplit>();
+        for (WebHdfsResource file : files) {
+            splits.addAll(WebHdfsSplit.of(file));
+        }
+        return splits;
+    }
+
+    public void process(WebHdfsResource root, String pattern, RecordHandler handler) {
+        process(glob(root, pattern), handler);
+    }
+
+    public void process(List<WebHdfsResource> files, RecordHandler handler) {
+        processSplits(splits(files), handler);
+    }
+
+    public void processSplits(List<WebHdfsSplit> splits, RecordHandler handler) {
+        if (!splits.isEmpty()) {
+            pool.invoke(new SplitsTask(splits, handler));
+        }
+    }
+
+    class SplitsTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        List<WebHdfsSplit> splits;
+        RecordHandler handler;
+
+        SplitsTask(List<WebHdfsSplit> splits, RecordHandler handler) {
+            this.splits = splits;
+            this.handler = handler;
+        }
+
+        @Override
+        protected void compute() {
+            if (splits.size() == 1) {
+                read(splits.get(0), handler);
+            } else {
+                int mid = splits.size() / 2;
+                invokeAll(
+                    new SplitsTask(splits.subList(0, mid), handler),
+                    new SplitsTask(splits.subList(mid, splits.size()), handler)
+                );
+            }
+        }
+    }
+
+    byte[] acquireBuffer() {
+        byte[] buffer = buffers.poll();
+        return buffer != null ? buffer : new byte[bufferSize];
+    }
+
+    void releaseBuffer(byte[] buffer) {
+        if (buffer.length == bufferSize) {
+            buffers.offer(buffer);
+        }
+    }
+
+    /**
+     * Reads a file sequentially from the given offset with ranged OPEN requests, so that a reader stopping early never
+     * drains more than one window past the split end.
+     */
+    static class RangeInputStream extends InputStream {
+        WebHdfsResource resource;
+        long position;
+        long nextEnd;
+        long limit;
+        int window;
+        InputStream current;
+        long currentRead;
+
+        RangeInputStream(WebHdfsResource resource, long position, long firstEnd, int window) {
+            this.resource = resource;
+            this.position = position;
+            this.limit = resource.getLength();
+            this.nextEnd = Math.min(firstEnd + window, limit);
+            this.window = window;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            while (true) {
+                if (current == null) {
+                    if (position >= limit) {
+                        return -1;
+                    }
+                    long end = Math.max(nextEnd, Math.min(position + window, limit));
+                    current = resource.openRange(position, end - position, (long) window);
+                    currentRead = 0;
+                    nextEnd = end;
+                }
+
+                int n = current.read(b, off, len);
+                if (n > 0) {
+                    position += n;
+                    currentRead += n;
+                    return n;
+                }
+
+                current.close();
+                current = null;
+                if (currentRead == 0) {
+                    // File was truncated under us
+                    return -1;
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (current != null) {
+                current.close();
+                current = null;
+            }
+        }
+    }
+
+    public long read(WebHdfsSplit split, RecordHandler handler) {
+        long end = split.getEnd();
+        byte[] buf = acquireBuffer();
+        ByteBuffer view = ByteBuffer.wrap(buf);
+        long bufOffset = split.getStart();
+        int lo = 0;
+        int hi = 0;
+        int scan = 0;
+        boolean eof = false;
+        boolean skipFirst = split.getStart() != 0;
+        long records = 0;
+
+        try (InputStream in = new RangeInputStream(split.getResource(), split.getStart(), end, bufferSize)) {
+            while (bufOffset + lo <= end) {
+                int newline = -1;
+                int terminator = 1;
+                boolean pendingCr = false;
+                for (int i = scan; i < hi; i++) {
+                    if (buf[i] == '\n') {
+                        newline = i;
+                        break;
+                    }
+                    if (buf[i] == '\r') {
+                        if (i + 1 < hi) {
+                            newline = i;
+                            terminator = buf[i + 1] == '\n' ? 2 : 1;
+                        } else if (eof) {
+                            newline = i;
+                        } else {
+                            // The next byte tells a bare CR from CRLF
+                            pendingCr = true;
+                        }
+                        break;
+                    }
+                }
+
+                if (newline < 0) {
+                    if (eof) {
+                        if (hi > lo && !skipFirst) {
+                            view.clear();
+                            view.limit(hi).position(lo);
+                            handler.handle(split, bufOffset + lo, view);
+                            records++;
+                        }
+                        break;
+                    }
+
+                    if (lo > 0) {
+                        System.arraycopy(buf, lo, buf, 0, hi - lo);
+                        bufOffset += lo;
+                        hi -= lo;
+                        lo = 0;
+                    }
+                    if (hi == buf.length) {
+                        byte[] grown = new byte[buf.length * 2];
+                        System.arraycopy(buf, 0, grown, 0, hi);
+                        releaseBuffer(buf);
+                        buf = grown;
+                        view = ByteBuffer.wrap(buf);
+                    }
+                    scan = pendingCr ? hi - 1 : hi;
+                    int n = in.read(buf, hi, buf.length - hi);
+                    if (n < 0) {
+                        eof = true;
+                    } else {
+                        hi += n;
+                    }
+                    continue;
+                }
+
+                if (skipFirst) {
+                    skipFirst = false;
+                } else {
+                    view.clear();
+                    view.limit(newline).position(lo);
+                    handler.handle(split, bufOffset + lo, view);
+                    records++;
+                }
+                lo = newline + terminator;
+                scan = lo;
+            }
+        } catch (IOException e) {
+            throw new WebHdfsClient.NetworkError(e);
+        } finally {
+            releaseBuffer(buf);
+        }
+
+        logger.debug("Read {} records from {}", records, split);
+        return records;
+    }
+}
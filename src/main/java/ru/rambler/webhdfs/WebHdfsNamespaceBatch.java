@@ -0,0 +1,414 @@
+package ru.rambler.webhdfs;
+
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Collects namespace operations and runs them with bounded parallelism. Operations on related paths (the same path, an
+ * ancestor or a descendant) keep their submission order, unrelated ones run concurrently. A MKDIRS made redundant by a
+ * later MKDIRS of a descendant with the same permission is merged into it. Failures are reported per operation, a
+ * RENAME or DELETE answering false counting as one, and operations depending on a failed one are skipped.
+ */
+public class WebHdfsNamespaceBatch {
+    public static int DEFAULT_PARALLELISM = 8;
+
+    WebHdfsClient client;
+    int parallelism;
+    List<Operation> operations = new ArrayList<Operation>();
+    final Logger logger = LoggerFactory.getLogger(WebHdfsNamespaceBatch.class);
+
+    public enum Kind {
+        MKDIR, RENAME, REMOVE, SET_PERMISSION, SET_OWNER
+    }
+
+    public enum Status {
+        SUCCEEDED, FAILED, SKIPPED, MERGED
+    }
+
+    public static class Operation {
+        private Kind kind;
+        private Path path;
+        private Path destination;
+        private String permission;
+        private String owner;
+        private String group;
+        private boolean recursive;
+
+        Operation(Kind kind, Path path) {
+            this.kind = kind;
+            this.path = path;
+        }
+
+        List<Path> paths() {
+            return destination != null ? Arrays.asList(path, destination) : Collections.singletonList(path);
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public Path getDestination() {
+            return destination;
+        }
+
+        public String getPermission() {
+            return permission;
+        }
+
+        public String getOwner() {
+            return owner;
+        }
+
+        public String getGroup() {
+            return group;
+        }
+
+        public boolean isRecursive() {
+            return recursive;
+        }
+
+        @Override
+        public String toString() {
+            return "Operation{" + "kind=" + kind + ", path=" + path + (destination != null ? ", destination="
+                + destination : "") + '}';
+        }
+    }
+
+    public static class Result {
+        private Operation operation;
+        private Status status;
+        private Boolean value;
+        private Exception error;
+
+        Result(Operation operation, Status status, Boolean value, Exception error) {
+            this.operation = operation;
+            this.status = status;
+            this.value = value;
+            this.error = error;
+        }
+
+        public Operation getOperation() {
+            return operation;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        /**
+         * The boolean answered by MKDIRS, RENAME and DELETE; true for the operations answering nothing.
+         */
+        public Boolean getValue() {
+            return value;
+        }
+
+        public Exception getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{" + "operation=" + operation + ", status=" + status + ", value=" + value
+                + (error != null ? ", error=" + error : "") + '}';
+        }
+    }
+
+    public static class Report {
+        private List<Result> results;
+
+        Report(List<Result> results) {
+            this.results = results;
+        }
+
+        public List<Result> getResults() {
+            return results;
+        }
+
+        public List<Result> getFailed() {
+            List<Result> failed = new ArrayList<Result>();
+            for (Result result : results) {
+                if (result.getStatus() == Status.FAILED) {
+                    failed.add(result);
+                }
+            }
+            return failed;
+        }
+
+        public int count(Status status) {
+            int count = 0;
+            for (Result result : results) {
+                if (result.getStatus() == status) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        public boolean isSucceeded() {
+            return count(Status.FAILED) == 0 && count(Status.SKIPPED) == 0;
+        }
+    }
+
+    public WebHdfsNamespaceBatch(WebHdfsClient client, int parallelism) {
+        this.client = client;
+        this.parallelism = parallelism;
+    }
+
+    public WebHdfsNamespaceBatch(WebHdfsClient client) {
+        this(client, DEFAULT_PARALLELISM);
+    }
+
+    static Path normalize(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+
+    Operation add(Kind kind, Path path) {
+        Operation operation = new Operation(kind, normalize(path));
+        operations.add(operation);
+        return operation;
+    }
+
+    public WebHdfsNamespaceBatch mkdir(Path path, String permission) {
+        add(Kind.MKDIR, path).permission = permission;
+        return this;
+    }
+
+    public WebHdfsNamespaceBatch mkdir(String path, String permission) {
+        return mkdir(Paths.get(path), permission);
+    }
+
+    public WebHdfsNamespaceBatch rename(Path source, Path destination) {
+        add(Kind.RENAME, source).destination = normalize(destination);
+        return this;
+    }
+
+    public WebHdfsNamespaceBatch rename(String source, String destination) {
+        return rename(Paths.get(source), Paths.get(destination));
+    }
+
+    public WebHdfsNamespaceBatch remove(Path path, boolean recursive) {
+        add(Kind.REMOVE, path).recursive = recursive;
+        return this;
+    }
+
+    public WebHdfsNamespaceBatch remove(String path, boolean recursive) {
+        return remove(Paths.get(path), recursive);
+    }
+
+    public WebHdfsNamespaceBatch setPermission(Path path, String permission) {
+        add(Kind.SET_PERMISSION, path).permission = permission;
+        return this;
+    }
+
+    public WebHdfsNamespaceBatch setPermission(String path, String permission) {
+        return setPermission(Paths.get(path), permission);
+    }
+
+    public WebHdfsNamespaceBatch setOwner(Path path, String owner, String group) {
+        Operation operation = add(Kind.SET_OWNER, path);
+        operation.owner = owner;
+        operation.group = group;
+        return this;
+    }
+
+    public WebHdfsNamespaceBatch setOwner(String path, String owner, String group) {
+        return setOwner(Paths.get(path), owner, group);
+    }
+
+    public List<Operation> getOperations() {
+        return operations;
+    }
+
+    /**
+     * Marks MKDIRS calls whose effect is covered by a later MKDIRS of a descendant (or the same path) with the same
+     * permission, as long as nothing in between touches the dropped path, its subtree or its ancestors.
+     */
+    boolean[] merge() {
+        boolean[] merged = new boolean[operations.size()];
+        Map<Path, Integer> exactTouch = new HashMap<Path, Integer>();
+        Map<Path, Integer> subtreeTouch = new HashMap<Path, Integer>();
+        Map<Path, Integer> pendingMkdir = new HashMap<Path, Integer>();
+
+        for (int i = 0; i < operations.size(); i++) {
+            Operation operation = operations.get(i);
+            if (operation.kind == Kind.MKDIR) {
+                for (Path candidate = operation.path; candidate != null; candidate = candidate.getParent()) {
+                    Integer earlier = pendingMkdir.get(candidate);
+                    if (earlier == null
+                        || !Objects.equals(operations.get(earlier).permission, operation.permission)
+                        || !earlier.equals(subtreeTouch.get(candidate))) {
+                        continue;
+                    }
+                    boolean ancestorsUntouched = true;
+                    for (Path ancestor = candidate.getParent(); ancestor != null; ancestor = ancestor.getParent()) {
+                        Integer touched = exactTouch.get(ancestor);
+                        if (touched != null && touched > earlier) {
+                            ancestorsUntouched = false;
+                            break;
+                        }
+                    }
+                    if (ancestorsUntouched) {
+                        merged[earlier] = true;
+                        pendingMkdir.remove(candidate);
+                    }
+                }
+                pendingMkdir.put(operation.path, i);
+            }
+
+            for (Path path : operation.paths()) {
+                exactTouch.put(path, i);
+                for (Path ancestor = path; ancestor != null; ancestor = ancestor.getParent()) {
+                    subtreeTouch.put(ancestor, i);
+                }
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * For every operation, the earlier operations on the same path, its ancestors or its descendants. Earlier
+     * operations hidden behind an operation on the same path are reached transitively.
+     */
+    List<Set<Integer>> dependencies(boolean[] merged) {
+        List<Set<Integer>> dependencies = new ArrayList<Set<Integer>>();
+        Map<Path, Integer> lastExact = new HashMap<Path, Integer>();
+        Map<Path, List<Integer>> under = new HashMap<Path, List<Integer>>();
+
+        for (int i = 0; i < operations.size(); i++) {
+            Set<Integer> depends = new LinkedHashSet<Integer>();
+            dependencies.add(depends);
+            if (merged[i]) {
+                continue;
+            }
+
+            for (Path path : operations.get(i).paths()) {
+                for (Path ancestor = path; ancestor != null; ancestor = ancestor.getParent()) {
+                    Integer last = lastExact.get(ancestor);
+                    if (last != null) {
+                        depends.add(last);
+                    }
+                }
+                List<Integer> below = under.get(path);
+                if (below != null) {
+                    depends.addAll(below);
+                }
+            }
+            depends.remove(i);
+
+            for (Path path : operations.get(i).paths()) {
+                lastExact.put(path, i);
+                under.put(path, new ArrayList<Integer>());
+                for (Path ancestor = path.getParent(); ancestor != null; ancestor = ancestor.getParent()) {
+                    List<Integer> below = under.get(ancestor);
+                    if (below == null) {
+                        below = new ArrayList<Integer>();
+                        under.put(ancestor, below);
+                    }
+                    below.add(i);
+                }
+            }
+        }
+        return dependencies;
+    }
+
+    Boolean apply(Operation operation) {
+        WebHdfsResource resource = client.resource(operation.path);
+        switch (operation.kind) {
+            case MKDIR:
+                return resource.mkdir(false, operation.permission);
+            case RENAME:
+                return resource.rename(operation.destination);
+            case REMOVE:
+                return resource.remove(operation.recursive);
+            case SET_PERMISSION:
+                resource.setPermission(operation.permission);
+                return true;
+            case SET_OWNER:
+                resource.setOwner(operation.owner, operation.group);
+                return true;
+            default:
+                throw new IllegalArgumentException("Unknown operation " + operation.kind);
+        }
+    }
+
+    Result run(int i, List<CompletableFuture<Result>> before) {
+        Operation operation = operations.get(i);
+        for (CompletableFuture<Result> dependency : before) {
+            Result result = dependency.join();
+            if (result.getStatus() == Status.FAILED || result.getStatus() == Status.SKIPPED) {
+                return new Result(operation, Status.SKIPPED, null, result.getError());
+            }
+        }
+        Boolean value;
+        try {
+            value = apply(operation);
+        } catch (RuntimeException e) {
+            logger.warn("{} failed", operation, e);
+            return new Result(operation, Status.FAILED, null, e);
+        }
+        if (Boolean.FALSE.equals(value) && (operation.kind == Kind.RENAME || operation.kind == Kind.REMOVE)) {
+            // The NameNode declined without an error, e.g. for a missing source
+            logger.warn("{} returned false", operation);
+            return new Result(
+                operation, Status.FAILED, false, new WebHdfsClient.WebHdfsException(operation + " returned false")
+            );
+        }
+        return new Result(operation, Status.SUCCEEDED, value, null);
+    }
+
+    public Report execute() {
+        boolean[] merged = merge();
+        List<Set<Integer>> dependencies = dependencies(merged);
+        List<CompletableFuture<Result>> futures = new ArrayList<CompletableFuture<Result>>();
+
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            for (int i = 0; i < operations.size(); i++) {
+                if (merged[i]) {
+                    futures.add(CompletableFuture.completedFuture(
+                        new Result(operations.get(i), Status.MERGED, null, null)
+                    ));
+                    continue;
+                }
+
+                int index = i;
+                List<CompletableFuture<Result>> before = new ArrayList<CompletableFuture<Result>>();
+                for (Integer dependency : dependencies.get(i)) {
+                    before.add(futures.get(dependency));
+                }
+                futures.add(CompletableFuture.allOf(before.toArray(new CompletableFuture<?>[0])).thenApplyAsync(
+                    ignored -> run(index, before), executor
+                ));
+            }
+
+            List<Result> results = new ArrayList<Result>();
+            for (CompletableFuture<Result> future : futures) {
+                results.add(future.join());
+            }
+            return new Report(results);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package ru.rambler.webhdfs;
+
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+
+/**
+ * Read-only, memory-mapped list of namespace entries sorted by {@link #compare(String, String)}, so that every
+ * directory is immediately followed by its whole subtree. Entries live in a data file, their offsets in a separate
+ * offsets file; both are mapped in 1 GiB segments and records never cross a segment boundary.
+ */
+public class WebHdfsNamespaceIndex implements Closeable {
+    static final int SEGMENT_BITS = 30;
+    static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+    static final int RECORD_OVERHEAD = 4 + 8 * 3 + 1;
+
+    int size;
+    MappedByteBuffer[] offsets;
+    MappedByteBuffer[] data;
+
+    public static class Entry {
+        private String path;
+        private long fileId;
+        private long length;
+        private long modificationTime;
+        private boolean isDir;
+
+        public Entry(String path, long fileId, long length, long modificationTime, boolean isDir) {
+            this.path = path;
+            this.fileId = fileId;
+            this.length = length;
+            this.modificationTime = modificationTime;
+            this.isDir = isDir;
+        }
+
+        static Entry of(String path, WebHdfsResource resource) {
+            return new Entry(
+                path, resource.getFileId(), resource.getLength(), resource.getModificationTime(), resource.isDir()
+            );
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public long getFileId() {
+            return fileId;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public long getModificationTime() {
+            return modificationTime;
+        }
+
+        public boolean isDir() {
+            return isDir;
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{" + "path=" + path + ", fileId=" + fileId + ", length=" + length + ", modificationTime="
+                + modificationTime + ", isDir=" + isDir + '}';
+        }
+    }
+
+    /**
+     * Path order where '/' sorts before any other character, which keeps "a/b" between "a" and "a-b".
+     */
+    public static int compare(String a, String b) {
+        int len = Math.min(a.length(), b.length());
+        for (int i = 0; i < len; i++) {
+            char ca = a.charAt(i);
+            char cb = b.charAt(i);
+            if (ca != cb) {
+                if (ca == '/') {
+                    return -1;
+                }
+                if (cb == '/') {
+                    return 1;
+                }
+                return ca - cb;
+            }
+        }
+        return a.length() - b.length();
+    }
+
+    public static boolean isUnder(String path, String dir) {
+        return dir.isEmpty() ? !path.isEmpty() : path.length() > dir.length() && path.startsWith(dir)
+            && path.charAt(dir.length()) == '/';
+    }
+
+    static MappedByteBuffer[] map(Path file, long length) throws IOException {
+        int segments = (int) ((length + SEGMENT_SIZE - 1) >> SEGMENT_BITS);
+        MappedByteBuffer[] buffers = new MappedByteBuffer[segments];
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            for (int i = 0; i < segments; i++) {
+                long start = (long) i << SEGMENT_BITS;
+                buffers[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, length - start));
+            }
+        }
+        return buffers;
+    }
+
+    public WebHdfsNamespaceIndex(Path dataFile, Path offsetsFile, long dataSize, long offsetsSize) {
+        try {
+            this.size = (int) (offsetsSize / 8);
+            this.offsets = map(offsetsFile, offsetsSize);
+            this.data = map(dataFile, dataSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public WebHdfsNamespaceIndex(Path dataFile, Path offsetsFile) {
+        this(dataFile, offsetsFile, sizeOf(dataFile), sizeOf(offsetsFile));
+    }
+
+    public static WebHdfsNamespaceIndex empty() {
+        WebHdfsNamespaceIndex index = new WebHdfsNamespaceIndex();
+        index.offsets = new MappedByteBuffer[0];
+        index.data = new MappedByteBuffer[0];
+        return index;
+    }
+
+    WebHdfsNamespaceIndex() {
+    }
+
+    static long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    ByteBuffer record(int i) {
+        long offset = offsets[(int) ((8L * i) >> SEGMENT_BITS)].getLong((int) ((8L * i) & (SEGMENT_SIZE - 1)));
+        ByteBuffer segment = data[(int) (offset >> SEGMENT_BITS)].duplicate();
+        segment.position((int) (offset & (SEGMENT_SIZE - 1)));
+        return segment;
+    }
+
+    public String path(int i) {
+        ByteBuffer record = record(i);
+        byte[] bytes = new byte[record.getInt()];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public Entry get(int i) {
+        ByteBuffer record = record(i);
+        byte[] bytes = new byte[record.getInt()];
+        record.get(bytes);
+        return new Entry(
+            new String(bytes, StandardCharsets.UTF_8), record.getLong(), record.getLong(), record.getLong(),
+            record.get() != 0
+        );
+    }
+
+    /**
+     * First position whose path is not less than the given one.
+     */
+    public int lowerBound(String path) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(path(mid), path) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    public int find(String path) {
+        int i = lowerBound(path);
+        return i < size && path(i).equals(path) ? i : -1;
+    }
+
+    /**
+     * First position after the entry and everything under it.
+     */
+    public int subtreeEnd(int i) {
+        String dir = path(i);
+        int lo = i + 1;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (isUnder(path(mid), dir)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    @Override
+    public void close() {
+        offsets = new MappedByteBuffer[0];
+        data = new MappedByteBuffer[0];
+        size = 0;
+    }
+
+    public static class Writer implements Closeable {
+        FileOutputStream dataFile;
+        FileOutputStream offsetsFile;
+        DataOutputStream dataOut;
+        DataOutputStream offsetsOut;
+        long dataSize;
+        long offsetsSize;
+        String last;
+
+        /**
+         * Appends to the given files after cutting them to the given sizes, which lets a crawl continue from its last
+         * checkpoint.
+         */
+        public Writer(Path dataPath, Path offsetsPath, long dataSize, long offsetsSize, String last) {
+            try {
+                truncate(dataPath, dataSize);
+                truncate(offsetsPath, offsetsSize);
+                this.dataFile = new FileOutputStream(dataPath.toFile(), true);
+                this.offsetsFile = new FileOutputStream(offsetsPath.toFile(), true);
+                this.dataOut = new DataOutputStream(new BufferedOutputStream(dataFile, 1 << 16));
+                this.offsetsOut = new DataOutputStream(new BufferedOutputStream(offsetsFile, 1 << 16));
+                this.dataSize = dataSize;
+                this.offsetsSize = offsetsSize;
+                this.last = last;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        public Writer(Path dataPath, Path offsetsPath) {
+            this(dataPath, offsetsPath, 0, 0, null);
+        }
+
+        static void truncate(Path file, long size) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                channel.truncate(size);
+            }
+        }
+
+        public void append(Entry entry) {
+            if (last != null && compare(last, entry.getPath()) >= 0) {
+                throw new IllegalStateException(
+                    "Index entries out of order: '" + last + "', '" + entry.getPath() + "'"
+                );
+            }
+
+            try {
+                byte[] path = entry.getPath().getBytes(StandardCharsets.UTF_8);
+                int recordSize = RECORD_OVERHEAD + path.length;
+                long inSegment = dataSize & (SEGMENT_SIZE - 1);
+                if (inSegment + recordSize > SEGMENT_SIZE) {
+                    for (long i = inSegment; i < SEGMENT_SIZE; i++) {
+                        dataOut.write(0);
+                    }
+                    dataSize += SEGMENT_SIZE - inSegment;
+                }
+
+                offsetsOut.writeLong(dataSize);
+                dataOut.writeInt(path.length);
+                dataOut.write(path);
+                dataOut.writeLong(entry.getFileId());
+                dataOut.writeLong(entry.getLength());
+                dataOut.writeLong(entry.getModificationTime());
+                dataOut.writeByte(entry.isDir() ? 1 : 0);
+                dataSize += recordSize;
+                offsetsSize += 8;
+                last = entry.getPath();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Flushes and syncs both files, after which the returned sizes are safe to resume from.
+         */
+        public void sync() {
+            try {
+                dataOut.flush();
+                offsetsOut.flush();
+                dataFile.getChannel().force(false);
+                offsetsFile.getChannel().force(false);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        public long getDataSize() {
+            return dataSize;
+        }
+
+        public long getOffsetsSize() {
+            return offsetsSize;
+        }
+
+        public String getLast() {
+            return last;
+        }
+
+        @Override
+        public void close() {
+            try {
+                sync();
+                dataOut.close();
+                offsetsOut.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
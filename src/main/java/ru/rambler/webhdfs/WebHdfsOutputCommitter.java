@@ -0,0 +1,280 @@
+package ru.rambler.webhdfs;
+
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Makes the output of a multi-task job appear at once, following the layout of Hadoop's FileOutputCommitter. Task
+ * attempts write under {@code <output>/_temporary/<job>/_temporary/<task>_<attempt>}; committing a task renames its
+ * attempt directory to {@code <output>/_temporary/<job>/<task>}. Committing the job merges the committed tasks into
+ * the output and writes the {@code _SUCCESS} marker, which readers should wait for.
+ *
+ * <p>
+ * The merge renames a whole file or directory whenever the destination is free, so a task writing into its own
+ * subdirectories costs one rename per top-level entry. Only directories several tasks write into are descended into.
+ * Renames, listings and cleanup deletes run concurrently on a bounded pool.
+ */
+public class WebHdfsOutputCommitter {
+    public static String TEMPORARY = "_temporary";
+    public static String SUCCESS = "_SUCCESS";
+    public static int DEFAULT_PARALLELISM = 16;
+
+    WebHdfsResource output;
+    String jobId;
+    int parallelism;
+    final Logger logger = LoggerFactory.getLogger(WebHdfsOutputCommitter.class);
+
+    public WebHdfsOutputCommitter(WebHdfsResource output, String jobId, int parallelism) {
+        this.output = output;
+        this.jobId = jobId;
+        this.parallelism = parallelism;
+    }
+
+    public WebHdfsOutputCommitter(WebHdfsResource output, String jobId) {
+        this(output, jobId, DEFAULT_PARALLELISM);
+    }
+
+    public WebHdfsResource getOutput() {
+        return output;
+    }
+
+    public WebHdfsResource getJobDirectory() {
+        return output.child(TEMPORARY).child(jobId);
+    }
+
+    public void setupJob() {
+        getJobDirectory().child(TEMPORARY).mkdir(true);
+    }
+
+    public TaskAttempt task(String taskId, int attempt) {
+        return new TaskAttempt(taskId, attempt);
+    }
+
+    public class TaskAttempt {
+        private String taskId;
+        private int attempt;
+
+        TaskAttempt(String taskId, int attempt) {
+            this.taskId = taskId;
+            this.attempt = attempt;
+        }
+
+        public String getTaskId() {
+            return taskId;
+        }
+
+        public int getAttempt() {
+            return attempt;
+        }
+
+        public WebHdfsResource getDirectory() {
+            return getJobDirectory().child(TEMPORARY).child(taskId + "_" + attempt);
+        }
+
+        /**
+         * Where the attempt writes a file of the given output-relative path.
+         */
+        public WebHdfsResource file(String path) {
+            return getDirectory().child(path);
+        }
+
+        public void setup() {
+            getDirectory().mkdir(true);
+        }
+
+        /**
+         * Publishes the attempt as the output of its task. At most one attempt of a task may commit; the rename fails
+         * atomically if another attempt got there first, even when speculative attempts commit at the same time.
+         */
+        public void commit() {
+            WebHdfsResource attemptDirectory = getDirectory();
+            WebHdfsResource committed = getJobDirectory().child(taskId);
+            if (!attemptDirectory.exists()) {
+                logger.debug("Task attempt {} wrote nothing", attemptDirectory);
+                return;
+            }
+            try {
+                attemptDirectory.rename(committed.getPath(), false);
+            } catch (WebHdfsClient.AlreadyExists e) {
+                throw new WebHdfsClient.AlreadyExists("Task " + taskId + " is already committed");
+            }
+        }
+
+        public void abort() {
+            getDirectory().remove(true);
+        }
+    }
+
+    static void rename(WebHdfsResource source, WebHdfsResource destination) {
+        if (!source.rename(destination.getPath())) {
+            throw new WebHdfsClient.RemoteException("Rename of " + source + " to " + destination + " failed");
+        }
+    }
+
+    static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    static CompletableFuture<Void> allOf(List<CompletableFuture<Void>> futures) {
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+    }
+
+    List<WebHdfsResource> committedTasks() {
+        List<WebHdfsResource> tasks = new ArrayList<WebHdfsResource>();
+        for (WebHdfsResource child : getJobDirectory().listResources()) {
+            if (!child.getBaseName().equals(TEMPORARY)) {
+                tasks.add(child);
+            }
+        }
+        return tasks;
+    }
+
+    public void commitJob() {
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            List<WebHdfsResource> tasks = committedTasks();
+            logger.info("Committing {} tasks of job {} into {}", tasks.size(), jobId, output);
+            join(merge(tasks, output, executor));
+            output.child(SUCCESS).create(new ByteArrayInputStream(new byte[0]), true, null, null, null, null);
+            join(cleanup(executor));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Moves the children of the sources into the existing target directory.
+     */
+    CompletableFuture<Void> merge(List<WebHdfsResource> sources, WebHdfsResource target, ExecutorService executor) {
+        List<CompletableFuture<List<WebHdfsResource>>> listings =
+            new ArrayList<CompletableFuture<List<WebHdfsResource>>>();
+        for (WebHdfsResource source : sources) {
+            listings.add(CompletableFuture.supplyAsync(source::listResources, executor));
+        }
+        CompletableFuture<List<WebHdfsResource>> existing = CompletableFuture.supplyAsync(
+            target::listResources, executor
+        );
+
+        CompletableFuture<Void> listed = CompletableFuture.allOf(listings.toArray(new CompletableFuture<?>[0]));
+        return listed.thenCombine(existing, (v, present) -> {
+            Map<String, WebHdfsResource> targetChildren = new TreeMap<String, WebHdfsResource>();
+            for (WebHdfsResource child : present) {
+                targetChildren.put(child.getBaseName(), child);
+            }
+            Map<String, List<WebHdfsResource>> incoming = new TreeMap<String, List<WebHdfsResource>>();
+            for (CompletableFuture<List<WebHdfsResource>> listing : listings) {
+                for (WebHdfsResource child : listing.join()) {
+                    incoming.computeIfAbsent(child.getBaseName(), name -> new ArrayList<WebHdfsResource>()).add(child);
+                }
+            }
+
+            List<CompletableFuture<Void>> moves = new ArrayList<CompletableFuture<Void>>();
+            for (Map.Entry<String, List<WebHdfsResource>> entry : incoming.entrySet()) {
+                String name = entry.getKey();
+                moves.add(place(entry.getValue(), targetChildren.get(name), target.child(name), executor));
+            }
+            return allOf(moves);
+        }).thenCompose(moves -> moves);
+    }
+
+    /**
+     * Puts the entries of one name, coming from one or more sources, at the destination.
+     */
+    CompletableFuture<Void> place(
+        List<WebHdfsResource> sources, WebHdfsResource present, WebHdfsResource destination, ExecutorService executor
+    ) {
+        boolean allDirs = true;
+        for (WebHdfsResource source : sources) {
+            allDirs &= source.isDir();
+        }
+
+        if (sources.size() == 1 && present == null) {
+            return CompletableFuture.runAsync(() -> rename(sources.get(0), destination), executor);
+        }
+        if (allDirs && (present == null || present.isDir())) {
+            if (present != null) {
+                return merge(sources, destination, executor);
+            }
+            return CompletableFuture.runAsync(() -> destination.mkdir(false), executor)
+                .thenCompose(v -> merge(sources, destination, executor));
+        }
+        if (sources.size() == 1) {
+            // Leftover of an earlier run, replaced the way FileOutputCommitter does it
+            return CompletableFuture.runAsync(() -> {
+                present.remove(true);
+                rename(sources.get(0), destination);
+            }, executor);
+        }
+
+        CompletableFuture<Void> conflict = new CompletableFuture<Void>();
+        conflict.completeExceptionally(new WebHdfsClient.AlreadyExists(
+            "Several tasks wrote " + destination.getPath() + " and not all of them as directories"
+        ));
+        return conflict;
+    }
+
+    /**
+     * Deletes the job directory one task at a time in parallel, then the shared temporary directory if no other job
+     * uses it.
+     */
+    CompletableFuture<Void> cleanup(ExecutorService executor) {
+        WebHdfsResource jobDirectory = getJobDirectory();
+        return CompletableFuture.supplyAsync(() -> {
+            List<CompletableFuture<Void>> removals = new ArrayList<CompletableFuture<Void>>();
+            List<WebHdfsResource> children = new ArrayList<WebHdfsResource>();
+            try {
+                children.addAll(jobDirectory.listResources());
+                if (jobDirectory.child(TEMPORARY).exists()) {
+                    children.addAll(jobDirectory.child(TEMPORARY).listResources());
+                }
+            } catch (WebHdfsClient.NotFound e) {
+                return allOf(removals);
+            }
+            for (WebHdfsResource child : children) {
+                if (!child.getBaseName().equals(TEMPORARY)) {
+                    removals.add(CompletableFuture.runAsync(() -> child.remove(true), executor));
+                }
+            }
+            return allOf(removals);
+        }, executor).thenCompose(removals -> removals).thenRunAsync(() -> {
+            jobDirectory.remove(true);
+            WebHdfsResource temporary = output.child(TEMPORARY);
+            try {
+                if (temporary.listResources().isEmpty()) {
+                    temporary.remove(false);
+                }
+            } catch (WebHdfsClient.WebHdfsException e) {
+                // Emptied by a concurrent job, or in use by another one again
+                logger.debug("Left {} in place", temporary, e);
+            }
+        }, executor);
+    }
+
+    public void abortJob() {
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            join(cleanup(executor));
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package ru.rambler.webhdfs;
+
+
+import java.nio.file.Path;
+
+
+/**
+ * Query parameters of a WebHDFS request, percent-encoded once as they are added, so a query is assembled without
+ * intermediate pairs and serves every host attempt as is. Numbers and booleans go straight into the buffer. Null
+ * values are skipped.
+ *
+ * Encoding follows URIBuilder of Apache HttpClient, which built the requests before: in values only letters, digits
+ * and "-_.*" pass unchanged and a space becomes '+'; in paths "_-!.~'()*,;:$&+=/@" pass unchanged as well.
+ */
+public class WebHdfsQuery {
+    static final boolean[] QUERY_SAFE = safe("-_.*");
+    static final boolean[] PATH_SAFE = safe("_-!.~'()*,;:$&+=/@");
+    static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    final StringBuilder encoded = new StringBuilder(64);
+
+    public static WebHdfsQuery create() {
+        return new WebHdfsQuery();
+    }
+
+    static boolean[] safe(String extra) {
+        boolean[] safe = new boolean[128];
+        for (char c = 'a'; c <= 'z'; c++) {
+            safe[c] = true;
+        }
+        for (char c = 'A'; c <= 'Z'; c++) {
+            safe[c] = true;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            safe[c] = true;
+        }
+        for (int i = 0; i < extra.length(); i++) {
+            safe[extra.charAt(i)] = true;
+        }
+        return safe;
+    }
+
+    static void encode(CharSequence value, boolean[] safe, boolean spaceAsPlus, StringBuilder out) {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 128 && safe[c]) {
+                out.append(c);
+            } else if (c == ' ' && spaceAsPlus) {
+                out.append('+');
+            } else if (c < 0x80) {
+                escape(c, out);
+            } else if (c < 0x800) {
+                escape(0xc0 | c >> 6, out);
+                escape(0x80 | c & 0x3f, out);
+            } else if (Character.isSurrogatePair(c, i + 1 < length ? value.charAt(i + 1) : 0)) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                escape(0xf0 | codePoint >> 18, out);
+                escape(0x80 | codePoint >> 12 & 0x3f, out);
+                escape(0x80 | codePoint >> 6 & 0x3f, out);
+                escape(0x80 | codePoint & 0x3f, out);
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogates are replaced, like the charset encoder does
+                escape('?', out);
+            } else {
+                escape(0xe0 | c >> 12, out);
+                escape(0x80 | c >> 6 & 0x3f, out);
+                escape(0x80 | c & 0x3f, out);
+            }
+        }
+    }
+
+    static void escape(int b, StringBuilder out) {
+        out.append('%').append(HEX[b >> 4 & 0xf]).append(HEX[b & 0xf]);
+    }
+
+    /**
+     * Absolute path without the leading slash, encoded to follow {@link WebHdfsClient#API_PATH}.
+     */
+    static String encodePath(Path path) {
+        String absolute = path.toAbsolutePath().toString();
+        int start = absolute.startsWith("/") ? 1 : 0;
+        StringBuilder out = new StringBuilder(absolute.length() + 8);
+        encode(absolute.substring(start), PATH_SAFE, false, out);
+        return out.toString();
+    }
+
+    static String encodeValue(String value) {
+        StringBuilder out = new StringBuilder(value.length() + 8);
+        encode(value, QUERY_SAFE, true, out);
+        return out.toString();
+    }
+
+    StringBuilder name(String name) {
+        encoded.append('&');
+        encode(name, QUERY_SAFE, true, encoded);
+        return encoded.append('=');
+    }
+
+    public WebHdfsQuery add(String name, String value) {
+        if (value != null) {
+            encode(value, QUERY_SAFE, true, name(name));
+        }
+        return this;
+    }
+
+    public WebHdfsQuery add(String name, Long value) {
+        if (value != null) {
+            name(name).append(value.longValue());
+        }
+        return this;
+    }
+
+    public WebHdfsQuery add(String name, Short value) {
+        if (value != null) {
+            name(name).append(value.shortValue());
+        }
+        return this;
+    }
+
+    public WebHdfsQuery add(String name, Boolean value) {
+        if (value != null) {
+            name(name).append(value.booleanValue());
+        }
+        return this;
+    }
+
+    /**
+     * Drops all parameters, keeping the buffer for the next request.
+     */
+    public WebHdfsQuery reset() {
+        encoded.setLength(0);
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return encoded.length() == 0;
+    }
+
+    public int length() {
+        return encoded.length();
+    }
+
+    /**
+     * Appends the parameters, each preceded by '&amp;', for joining the op and user.name fragment of a request.
+     */
+    public StringBuilder appendTo(StringBuilder out) {
+        return out.append(encoded);
+    }
+
+    @Override
+    public String toString() {
+        return encoded.toString();
+    }
+}
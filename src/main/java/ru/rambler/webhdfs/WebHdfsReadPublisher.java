@@ -0,0 +1,251 @@
+package ru.rambler.webhdfs;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Publishes the content of a file. Each subscriber gets its own OPEN request, sent through
+ * {@link WebHdfsTransport#executeAsync} on the first request(n), and items are signalled on the executor.
+ *
+ * <p>
+ * When the transport publishes the response body, as {@link WebHdfsJdkTransport} does, items are the buffers as they
+ * arrive and the body is only pulled from the connection while the subscriber has outstanding demand, so no thread
+ * waits on the network. Otherwise, as with {@link WebHdfsApacheTransport} or the block cache, the body is a stream
+ * read in chunks of at most chunkSize bytes: while there is demand, an executor thread waits on the socket for each
+ * chunk, and a subscriber that keeps requesting holds a thread for the whole transfer.
+ */
+public class WebHdfsReadPublisher implements Flow.Publisher<ByteBuffer> {
+    public static int DEFAULT_CHUNK_SIZE = 1 << 16;
+
+    WebHdfsResource resource;
+    Long offset;
+    Long length;
+    int chunkSize;
+    Executor executor;
+
+    public WebHdfsReadPublisher(WebHdfsResource resource, Long offset, Long length, int chunkSize, Executor executor) {
+        this.resource = resource;
+        this.offset = offset;
+        this.length = length;
+        this.chunkSize = chunkSize;
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        ReadSubscription subscription = new ReadSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+    }
+
+    class ReadSubscription implements Flow.Subscription, Flow.Subscriber<List<ByteBuffer>> {
+        Flow.Subscriber<? super ByteBuffer> subscriber;
+        AtomicLong demand = new AtomicLong();
+        AtomicInteger pending = new AtomicInteger();
+        volatile boolean done = false;
+        boolean started = false;
+        Throwable invalidRequest;
+        volatile InputStream data;
+        volatile Flow.Subscription body;
+        Queue<ByteBuffer> received = new ConcurrentLinkedQueue<ByteBuffer>();
+        AtomicBoolean requested = new AtomicBoolean();
+        volatile boolean ended = false;
+        volatile Throwable failure;
+
+        ReadSubscription(Flow.Subscriber<? super ByteBuffer> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (done) {
+                return;
+            }
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("Non-positive request " + n);
+            } else {
+                demand.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            done = true;
+            schedule();
+        }
+
+        /**
+         * Runs the drain loop on the executor unless it is running already, in which case that run picks the new
+         * state up.
+         */
+        void schedule() {
+            if (pending.getAndIncrement() == 0) {
+                try {
+                    executor.execute(this::drain);
+                } catch (RuntimeException e) {
+                    pending.set(0);
+                    finish(e);
+                }
+            }
+        }
+
+        void drain() {
+            int missed = pending.get();
+            while (true) {
+                try {
+                    emit();
+                } catch (Throwable e) {
+                    finish(e);
+                }
+                missed = pending.addAndGet(-missed);
+                if (missed == 0) {
+                    return;
+                }
+            }
+        }
+
+        void open() {
+            resource.openAsync(offset, length, executor).whenComplete((response, e) -> {
+                if (e != null) {
+                    failure = WebHdfsClient.unwrap(e);
+                    ended = true;
+                } else if (response.getPublisher() != null) {
+                    // onSubscribe schedules the drain
+                    response.getPublisher().subscribe(this);
+                    return;
+                } else {
+                    data = response.getBody();
+                }
+                schedule();
+            });
+        }
+
+        void emit() throws IOException {
+            if (done) {
+                close();
+                return;
+            }
+            if (invalidRequest != null) {
+                finish(invalidRequest);
+                return;
+            }
+            if (!started) {
+                started = true;
+                open();
+                return;
+            }
+            if (data != null) {
+                read();
+                return;
+            }
+
+            ByteBuffer buffer;
+            while (demand.get() > 0 && !done && (buffer = received.poll()) != null) {
+                demand.decrementAndGet();
+                subscriber.onNext(buffer);
+            }
+            if (done) {
+                close();
+            } else if (received.isEmpty() && ended) {
+                if (failure != null) {
+                    finish(failure);
+                } else {
+                    done = true;
+                    close();
+                    subscriber.onComplete();
+                }
+            } else if (demand.get() > 0 && body != null && requested.compareAndSet(false, true)) {
+                body.request(1);
+            }
+        }
+
+        /**
+         * Reads chunks from a response body that is only available as a stream.
+         */
+        void read() throws IOException {
+            while (demand.get() > 0 && !done) {
+                byte[] chunk = new byte[chunkSize];
+                int n = 0;
+                int r = 0;
+                while (n < chunkSize && (r = data.read(chunk, n, chunkSize - n)) >= 0) {
+                    n += r;
+                }
+                if (n > 0) {
+                    demand.decrementAndGet();
+                    subscriber.onNext(ByteBuffer.wrap(chunk, 0, n));
+                }
+                if (r < 0) {
+                    done = true;
+                    close();
+                    subscriber.onComplete();
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            body = subscription;
+            schedule();
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> item) {
+            for (ByteBuffer buffer : item) {
+                if (buffer.hasRemaining()) {
+                    received.add(buffer);
+                }
+            }
+            requested.set(false);
+            schedule();
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            failure = throwable;
+            ended = true;
+            schedule();
+        }
+
+        @Override
+        public void onComplete() {
+            ended = true;
+            schedule();
+        }
+
+        void finish(Throwable error) {
+            if (!done) {
+                done = true;
+                close();
+                subscriber.onError(error);
+            }
+        }
+
+        void close() {
+            if (body != null && !ended) {
+                body.cancel();
+                ended = true;
+            }
+            received.clear();
+            if (data != null) {
+                try {
+                    data.close();
+                } catch (IOException ignored) {
+                    // The content is not needed anymore
+                }
+                data = null;
+            }
+        }
+    }
+}
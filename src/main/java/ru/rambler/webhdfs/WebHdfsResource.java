@@ -1,21 +1,34 @@
 package ru.rambler.webhdfs;
 
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-import org.apache.http.HttpResponse;
 import org.apache.http.NameValuePair;
-import org.apache.http.client.methods.RequestBuilder;
-import org.apache.http.entity.AbstractHttpEntity;
-import org.apache.http.entity.ContentType;
-import org.apache.http.entity.InputStreamEntity;
-import org.apache.http.entity.StringEntity;
 import org.apache.http.message.BasicNameValuePair;
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -26,6 +39,7 @@ import org.slf4j.LoggerFactory;
 public class WebHdfsResource {
     private WebHdfsClient client;
     private Path path;
+    private String encodedPath;
     private boolean isExtented;
 
     private long accessTime;
@@ -43,6 +57,9 @@ public class WebHdfsResource {
 
     final Logger logger = LoggerFactory.getLogger(WebHdfsResource.class);
 
+    public static int DEFAULT_TRANSFER_BUFFER_SIZE = 1 << 20;
+    public static int DEFAULT_PENDING_DIRECTORY_ESTIMATE = 32;
+
     public WebHdfsResource(WebHdfsClient client, Path path) {
         this.client = client;
         this.path = path;
@@ -54,6 +71,16 @@ public class WebHdfsResource {
         return "WebHdfsResource{" + "path=" + path.toAbsolutePath().toString() + '}';
     }
 
+    /**
+     * Percent-encoded path of the requests, computed on first use.
+     */
+    String encodedPath() {
+        if (encodedPath == null) {
+            encodedPath = WebHdfsQuery.encodePath(path);
+        }
+        return encodedPath;
+    }
+
     void fillFileStatus(JSONObject stat) {
         this.isExtented = true;
         this.accessTime = stat.getLong("accessTime");
@@ -89,9 +116,24 @@ public class WebHdfsResource {
     }
 
     JSONObject listStatus() {
-        return this.client.requestAnyJson("GET", this.path, "LISTSTATUS", null);
+        return this.client.requestAnyJson("GET", encodedPath(), "LISTSTATUS", null);
     }
 
+    List<WebHdfsResource> listResources() {
+        JSONArray statuses = listStatus().getJSONObject("FileStatuses").getJSONArray("FileStatus");
+        List<WebHdfsResource> children = new ArrayList<WebHdfsResource>(statuses.length());
+        for (int i = 0; i < statuses.length(); i++) {
+            children.add(child(statuses.getJSONObject(i)));
+        }
+        return children;
+    }
+
+    /**
+     * Parameter list in the form of Apache HttpClient.
+     *
+     * @deprecated nothing takes these lists anymore; requests are built from {@link WebHdfsQuery}
+     */
+    @Deprecated
     public static class ParamsBuilder {
         private List<NameValuePair> params = new ArrayList<NameValuePair>();
 
@@ -168,8 +210,125 @@ public class WebHdfsResource {
         return new ResourceIterator(this, recursive);
     }
 
+    /**
+     * Walks the tree lazily: every directory is listed only when the split owning it reaches it. Splitting hands off
+     * unlisted directories (whole subtrees) first, then halves of an already listed directory.
+     */
+    public class ResourceSpliterator implements Spliterator<WebHdfsResource> {
+        boolean recursive;
+        Deque<WebHdfsResource> pending;
+        List<WebHdfsResource> batch;
+        int index;
+        int end;
+        Set<WebHdfsResource> detached;
+
+        public ResourceSpliterator(WebHdfsResource resource, boolean recursive) {
+            this(new ArrayDeque<WebHdfsResource>(), null, 0, 0, recursive);
+            this.pending.add(resource);
+        }
+
+        ResourceSpliterator(
+            Deque<WebHdfsResource> pending, List<WebHdfsResource> batch, int index, int end, boolean recursive
+        ) {
+            this.pending = pending;
+            this.batch = batch;
+            this.index = index;
+            this.end = end;
+            this.recursive = recursive;
+            this.detached = new HashSet<WebHdfsResource>();
+        }
+
+        void listNext() {
+            batch = pending.pollFirst().listResources();
+            index = 0;
+            end = batch.size();
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super WebHdfsResource> action) {
+            while (index >= end) {
+                if (pending.isEmpty()) {
+                    return false;
+                }
+                listNext();
+            }
+
+            WebHdfsResource resource = batch.get(index++);
+            if (recursive && resource.isDir() && !detached.remove(resource)) {
+                pending.addFirst(resource);
+            }
+            action.accept(resource);
+            return true;
+        }
+
+        @Override
+        public Spliterator<WebHdfsResource> trySplit() {
+            if (pending.size() > 1) {
+                Deque<WebHdfsResource> half = new ArrayDeque<WebHdfsResource>();
+                for (int i = pending.size() / 2; i > 0; i--) {
+                    half.addFirst(pending.pollLast());
+                }
+                return new ResourceSpliterator(half, null, 0, 0, recursive);
+            }
+
+            if (index >= end) {
+                if (pending.isEmpty()) {
+                    return null;
+                }
+                listNext();
+            }
+
+            if (end - index > 1) {
+                int mid = (index + end) >>> 1;
+                ResourceSpliterator split = new ResourceSpliterator(
+                    new ArrayDeque<WebHdfsResource>(), batch, mid, end, recursive
+                );
+                end = mid;
+                return split;
+            }
+
+            if (!pending.isEmpty()) {
+                Deque<WebHdfsResource> rest = pending;
+                pending = new ArrayDeque<WebHdfsResource>();
+                return new ResourceSpliterator(rest, null, 0, 0, recursive);
+            }
+
+            WebHdfsResource last = batch.get(index);
+            if (recursive && last.isDir() && !detached.contains(last)) {
+                // Keep the directory entry itself, but hand its subtree off
+                detached.add(last);
+                Deque<WebHdfsResource> subtree = new ArrayDeque<WebHdfsResource>();
+                subtree.add(last);
+                return new ResourceSpliterator(subtree, null, 0, 0, recursive);
+            }
+            return null;
+        }
+
+        /**
+         * Uses only what is already listed: the rest of the current batch, plus a fixed guess for every directory
+         * still waiting to be listed.
+         */
+        @Override
+        public long estimateSize() {
+            return end - index + (long) pending.size() * DEFAULT_PENDING_DIRECTORY_ESTIMATE;
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.DISTINCT | Spliterator.NONNULL;
+        }
+    }
+
+    public Stream<WebHdfsResource> stream(boolean recursive) {
+        return StreamSupport.stream(new ResourceSpliterator(this, recursive), false);
+    }
+
     public JSONObject getFileStatus() {
-        return client.requestAnyJson("GET", this.path, "GETFILESTATUS", null).getJSONObject("FileStatus");
+        return client.requestAnyJson("GET", encodedPath(), "GETFILESTATUS", null).getJSONObject("FileStatus");
+    }
+
+    public JSONObject getFileChecksum() {
+        return client.requestAnyJson("GET", encodedPath(), "GETFILECHECKSUM", null).getJSONObject("FileChecksum");
     }
 
     public void extendStat() {
@@ -178,63 +337,225 @@ public class WebHdfsResource {
         }
     }
 
-    void createInner(AbstractHttpEntity entity, List<NameValuePair> params) {
-        HttpResponse response = client.requestAny("PUT", this.path, "CREATE", params);
-        String location = response.getFirstHeader("location").getValue();
-        client.request(RequestBuilder.create("PUT").setUri(location).setEntity(entity).build());
+    /**
+     * Reloads the status, e.g. after the file was changed through another resource or client.
+     */
+    public void refreshStat() {
+        this.fillFileStatus(getFileStatus());
+    }
+
+    /**
+     * Sends the data to the DataNode the NameNode redirects to.
+     */
+    void redirected(String method, String operation, WebHdfsTransport.Body body, WebHdfsQuery params) {
+        // Even a failed write may have changed the file
+        this.isExtented = false;
+        String location;
+        try (WebHdfsTransport.Response response = client.requestAny(method, encodedPath(), operation, params)) {
+            location = response.getHeader("Location");
+        }
+        if (location == null) {
+            throw new WebHdfsClient.RemoteException(operation + " of " + this.path + " answered without a Location");
+        }
+        client.request(
+            new WebHdfsTransport.Request(method, URI.create(location), body, client.requestTimeout())
+        ).close();
+    }
+
+    /**
+     * {@link #redirected} through {@link WebHdfsClient#requestAnyAsync}, not waiting on either request.
+     */
+    CompletableFuture<Void> redirectedAsync(
+        String method, String operation, WebHdfsTransport.Body body, WebHdfsQuery params, Executor executor
+    ) {
+        this.isExtented = false;
+        return client.requestAnyAsync(method, encodedPath(), operation, params, executor).thenCompose(response -> {
+            String location = response.getHeader("Location");
+            response.close();
+            if (location == null) {
+                throw new WebHdfsClient.RemoteException(
+                    operation + " of " + this.path + " answered without a Location"
+                );
+            }
+            return client.requestAsync(
+                new WebHdfsTransport.Request(method, URI.create(location), body, client.requestTimeout()), executor
+            );
+        }).thenAccept(WebHdfsTransport.Response::close);
+    }
+
+    void createInner(WebHdfsTransport.Body body, WebHdfsQuery params) {
+        redirected("PUT", "CREATE", body, params);
+    }
+
+    WebHdfsQuery createParams(
+        Boolean overwrite, Long blockSize, Short replication, String permission, Long bufferSize
+    ) {
+        WebHdfsQuery query = WebHdfsQuery.create();
+        query.add("overwrite", overwrite);
+        query.add("blockSize", blockSize);
+        query.add("replication", replication);
+        query.add("permission", permission);
+        query.add("buffersize", bufferSize);
+        return query;
     }
 
     public void create(
         InputStream data, Boolean overwrite, Long blockSize, Short replication, String permission, Long bufferSize
     ) {
-        ParamsBuilder paramsBuilder = ParamsBuilder.create();
-        paramsBuilder.add("overwrite", overwrite);
-        paramsBuilder.add("blockSize", blockSize);
-        paramsBuilder.add("replication", replication);
-        paramsBuilder.add("permission", permission);
-        paramsBuilder.add("buffersize", bufferSize);
-
-        InputStreamEntity entity = new InputStreamEntity(data, ContentType.APPLICATION_OCTET_STREAM);
-        createInner(entity, paramsBuilder.build());
+        WebHdfsTransport.Body body = WebHdfsTransport.Body.of(data);
+        createInner(body, createParams(overwrite, blockSize, replication, permission, bufferSize));
     }
 
     public void create(String data) {
-        StringEntity entity = new StringEntity(data, ContentType.APPLICATION_OCTET_STREAM);
-        createInner(entity, null);
+        createInner(WebHdfsTransport.Body.of(data), null);
     }
 
     public void create(InputStream data) {
-        InputStreamEntity entity = new InputStreamEntity(data, ContentType.APPLICATION_OCTET_STREAM);
-        createInner(entity, null);
+        createInner(WebHdfsTransport.Body.of(data), null);
+    }
+
+    /**
+     * Creates the file through a pipelined stream compressing with the given codec, or with none if it is null.
+     * Compression and upload run on the client's executor with buffers from its pool; the stream must be closed to
+     * finish the file and give the buffers back.
+     */
+    public WebHdfsCompressedOutputStream createCompressed(
+        WebHdfsCodec codec, Boolean overwrite, Long blockSize, Short replication, String permission, Long bufferSize
+    ) {
+        try {
+            return new WebHdfsCompressedOutputStream(
+                this, codec, createParams(overwrite, blockSize, replication, permission, bufferSize),
+                client.getBufferPool(), WebHdfsCompressedOutputStream.DEFAULT_CHUNKS, client.getExecutor()
+            );
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Creates the file compressed with the codec of its extension, uncompressed if none matches.
+     */
+    public WebHdfsCompressedOutputStream createCompressed(boolean overwrite) {
+        return createCompressed(WebHdfsCodecs.forPath(this.path), overwrite, null, null, null, null);
+    }
+
+    public InputStream openDecompressed(WebHdfsCodec codec) {
+        InputStream data = open();
+        if (codec == null) {
+            return data;
+        }
+        try {
+            return codec.decompress(data, client.getBufferPool());
+        } catch (IOException e) {
+            try {
+                data.close();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw new WebHdfsClient.NetworkError(e);
+        }
+    }
+
+    /**
+     * Opens the file decompressed with the codec of its extension, as is if none matches.
+     */
+    public InputStream openDecompressed() {
+        return openDecompressed(WebHdfsCodecs.forPath(this.path));
+    }
+
+    public Flow.Publisher<ByteBuffer> read(Long offset, Long length, int chunkSize, Executor executor) {
+        return new WebHdfsReadPublisher(this, offset, length, chunkSize, executor);
+    }
+
+    public Flow.Publisher<ByteBuffer> read(Long offset, Long length) {
+        return read(offset, length, WebHdfsReadPublisher.DEFAULT_CHUNK_SIZE, client.getExecutor());
+    }
+
+    public Flow.Publisher<ByteBuffer> read() {
+        return read(null, null);
+    }
+
+    public CompletableFuture<Void> write(
+        Flow.Publisher<ByteBuffer> data, Boolean overwrite, Long blockSize, Short replication, String permission,
+        Long bufferSize, Executor executor
+    ) {
+        WebHdfsWriteSubscriber body = new WebHdfsWriteSubscriber(this.path, WebHdfsWriteSubscriber.DEFAULT_PREFETCH);
+        data.subscribe(body);
+        WebHdfsQuery params = createParams(overwrite, blockSize, replication, permission, bufferSize);
+        CompletableFuture<Void> result = new CompletableFuture<Void>();
+        redirectedAsync("PUT", "CREATE", body, params, executor).whenComplete((v, e) -> {
+            if (e == null) {
+                result.complete(null);
+                return;
+            }
+            body.cancel();
+            // Prefer the publisher's own failure over the aborted request it caused
+            result.completeExceptionally(body.getError() != null ? body.getError() : WebHdfsClient.unwrap(e));
+        });
+        return result;
+    }
+
+    public CompletableFuture<Void> write(Flow.Publisher<ByteBuffer> data) {
+        return write(data, true, null, null, null, null, client.getExecutor());
+    }
+
+    static int transferBufferSize(Long bufferSize) {
+        if (bufferSize == null || bufferSize <= 0) {
+            return DEFAULT_TRANSFER_BUFFER_SIZE;
+        }
+        return (int) Math.min(bufferSize, Integer.MAX_VALUE - 8);
+    }
+
+    public void upload(
+        FileChannel data, Boolean overwrite, Long blockSize, Short replication, String permission, Long bufferSize
+    ) {
+        try {
+            long position = data.position();
+            WebHdfsFileChannelBody body = new WebHdfsFileChannelBody(
+                data, position, data.size() - position, transferBufferSize(bufferSize)
+            );
+            createInner(body, createParams(overwrite, blockSize, replication, permission, bufferSize));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void upload(
+        Path source, Boolean overwrite, Long blockSize, Short replication, String permission, Long bufferSize
+    ) {
+        try (FileChannel data = FileChannel.open(source, StandardOpenOption.READ)) {
+            upload(data, overwrite, blockSize, replication, permission, bufferSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void upload(FileChannel data) {
+        upload(data, null, null, null, null, null);
+    }
+
+    public void upload(Path source) {
+        upload(source, null, null, null, null, null);
     }
 
     public void touch() {
         create("");
     }
 
-    void appendInner(AbstractHttpEntity entity, List<NameValuePair> params) {
-        HttpResponse response = client.requestAny("POST", this.path, "APPEND", params);
-        String location = response.getFirstHeader("location").getValue();
-        client.request(RequestBuilder.create("POST").setUri(location).setEntity(entity).build());
+    void appendInner(WebHdfsTransport.Body body, WebHdfsQuery params) {
+        redirected("POST", "APPEND", body, params);
     }
 
     public void append(String data) {
-        StringEntity entity = new StringEntity(data, ContentType.APPLICATION_OCTET_STREAM);
-        appendInner(entity, null);
+        appendInner(WebHdfsTransport.Body.of(data), null);
     }
 
     public void append(InputStream data, Long bufferSize) {
-        InputStreamEntity entity = new InputStreamEntity(data, ContentType.APPLICATION_OCTET_STREAM);
-        appendInner(entity, ParamsBuilder.create().add("buffersize", bufferSize).build());
+        appendInner(WebHdfsTransport.Body.of(data), WebHdfsQuery.create().add("buffersize", bufferSize));
     }
 
-    InputStream openInner(List<NameValuePair> params) {
-        try {
-            HttpResponse response = client.requestAny("GET", this.path, "OPEN", params);
-            return response.getEntity().getContent();
-        } catch (IOException e) {
-            throw new WebHdfsClient.NetworkError(e);
-        }
+    InputStream openInner(WebHdfsQuery params) {
+        return client.requestAny("GET", encodedPath(), "OPEN", params).getBody();
     }
 
     public InputStream open() {
@@ -242,25 +563,149 @@ public class WebHdfsResource {
     }
 
     public InputStream open(Long offset, Long length, Long bufferSize) {
-        ParamsBuilder paramsBuilder = ParamsBuilder.create();
-        paramsBuilder.add("offset", offset);
-        paramsBuilder.add("length", length);
-        paramsBuilder.add("buffersize", bufferSize);
-        return openInner(paramsBuilder.build());
+        WebHdfsBlockCache blockCache = client.getBlockCache();
+        if (blockCache != null) {
+            return blockCache.open(this, offset != null ? offset : 0L, length);
+        }
+        return openRange(offset, length, bufferSize);
+    }
+
+    InputStream openRange(Long offset, Long length, Long bufferSize) {
+        return openInner(rangeParams(offset, length, bufferSize));
+    }
+
+    WebHdfsQuery rangeParams(Long offset, Long length, Long bufferSize) {
+        WebHdfsQuery query = WebHdfsQuery.create();
+        query.add("offset", offset);
+        query.add("length", length);
+        query.add("buffersize", bufferSize);
+        return query;
+    }
+
+    /**
+     * OPEN through {@link WebHdfsClient#requestAnyAsync}, or from the block cache on the executor when there is one.
+     */
+    CompletableFuture<WebHdfsTransport.Response> openAsync(Long offset, Long length, Executor executor) {
+        WebHdfsBlockCache blockCache = client.getBlockCache();
+        if (blockCache != null) {
+            return CompletableFuture.supplyAsync(
+                () -> new WebHdfsTransport.Response(200, blockCache.open(this, offset != null ? offset : 0L, length)),
+                executor
+            );
+        }
+        return client.requestAnyAsync("GET", encodedPath(), "OPEN", rangeParams(offset, length, null), executor);
+    }
+
+    public long downloadTo(FileChannel target, Long offset, Long length, Long bufferSize) {
+        int step = transferBufferSize(bufferSize);
+        try (InputStream data = openRange(offset, length, bufferSize)) {
+            // Failed reads surface as NetworkError, so the IOExceptions of the transfer are the local file's
+            ReadableByteChannel source = Channels.newChannel(new FilterInputStream(data) {
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    try {
+                        return in.read(b, off, len);
+                    } catch (IOException e) {
+                        throw new WebHdfsClient.NetworkError(e);
+                    }
+                }
+            });
+            long transferred = 0;
+            try {
+                long start = target.position();
+                if (start > target.size()) {
+                    // transferFrom does nothing past the end, so fill the gap as a write at the position would
+                    target.write(ByteBuffer.allocate(1), start - 1);
+                }
+                long n;
+                while ((n = target.transferFrom(source, start + transferred, step)) > 0) {
+                    transferred += n;
+                }
+                target.position(start + transferred);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return transferred;
+        } catch (IOException e) {
+            throw new WebHdfsClient.NetworkError(e);
+        }
+    }
+
+    public long downloadTo(FileChannel target) {
+        return downloadTo(target, null, null, null);
+    }
+
+    public long downloadTo(Path target) {
+        try (FileChannel channel = FileChannel.open(
+            target, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE
+        )) {
+            return downloadTo(channel);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public WebHdfsFollowInputStream follow(long offset, Long bufferSize) {
+        return new WebHdfsFollowInputStream(this, offset, bufferSize);
+    }
+
+    public WebHdfsFollowInputStream follow() {
+        return follow(getFileStatus().getLong("length"), null);
     }
 
     public boolean rename(String destination) {
-        List<NameValuePair> params = ParamsBuilder.create().add("destination", destination).build();
-        return client.requestAnyJson("PUT", this.path, "RENAME", params).getBoolean("boolean");
+        WebHdfsQuery params = WebHdfsQuery.create().add("destination", destination);
+        this.isExtented = false;
+        return client.requestAnyJson("PUT", encodedPath(), "RENAME", params).getBoolean("boolean");
     }
 
     public boolean rename(Path destination) {
         return rename(destination.toString());
     }
 
+    /**
+     * Renames with the semantics of FileSystem.rename(src, dst, options): the destination is never entered as a
+     * directory, and an existing destination fails with {@link WebHdfsClient.AlreadyExists} unless overwrite is set.
+     * Unlike {@link #rename(Path)} the check is atomic on the NameNode.
+     */
+    public void rename(Path destination, boolean overwrite) {
+        WebHdfsQuery params = WebHdfsQuery.create().add("destination", destination.toString())
+            .add("renameoptions", overwrite ? "OVERWRITE" : "NONE");
+        this.isExtented = false;
+        client.requestAny("PUT", encodedPath(), "RENAME", params).close();
+    }
+
     public boolean remove(boolean recursive) {
-        List<NameValuePair> params = ParamsBuilder.create().add("recursive", new Boolean(recursive)).build();
-        return client.requestAnyJson("DELETE", this.path, "DELETE", params).getBoolean("boolean");
+        WebHdfsQuery params = WebHdfsQuery.create().add("recursive", recursive);
+        this.isExtented = false;
+        return client.requestAnyJson("DELETE", encodedPath(), "DELETE", params).getBoolean("boolean");
+    }
+
+    public String createSnapshot(String name) {
+        WebHdfsQuery params = WebHdfsQuery.create().add("snapshotname", name);
+        return client.requestAnyJson("PUT", encodedPath(), "CREATESNAPSHOT", params).getString("Path");
+    }
+
+    public void deleteSnapshot(String name) {
+        WebHdfsQuery params = WebHdfsQuery.create().add("snapshotname", name);
+        client.requestAny("DELETE", encodedPath(), "DELETESNAPSHOT", params).close();
+    }
+
+    public void renameSnapshot(String oldName, String newName) {
+        WebHdfsQuery params = WebHdfsQuery.create().add("oldsnapshotname", oldName)
+            .add("snapshotname", newName);
+        client.requestAny("PUT", encodedPath(), "RENAMESNAPSHOT", params).close();
+    }
+
+    /**
+     * Changes between two snapshots of this directory; an empty name stands for the current state. The returned diff
+     * holds the open response and has to be read to the end or closed.
+     */
+    public WebHdfsSnapshotDiff getSnapshotDiff(String fromSnapshot, String toSnapshot) {
+        WebHdfsQuery params = WebHdfsQuery.create().add("oldsnapshotname", fromSnapshot)
+            .add("snapshotname", toSnapshot);
+        InputStream diff = client.requestAny("GET", encodedPath(), "GETSNAPSHOTDIFF", params).getBody();
+        return new WebHdfsSnapshotDiff(this, diff);
     }
 
     public boolean exists() {
@@ -273,8 +718,8 @@ public class WebHdfsResource {
     }
 
     boolean mkdirInner(String permission) {
-        List<NameValuePair> params = ParamsBuilder.create().add("permission", permission).build();
-        return client.requestAnyJson("PUT", this.path, "MKDIRS", params).getBoolean("boolean");
+        WebHdfsQuery params = WebHdfsQuery.create().add("permission", permission);
+        return client.requestAnyJson("PUT", encodedPath(), "MKDIRS", params).getBoolean("boolean");
     }
 
     public boolean mkdir(boolean parents) {
@@ -282,14 +727,33 @@ public class WebHdfsResource {
     }
 
     public boolean mkdir(boolean parents, String permission) {
-        if (parents) {
-            if (!this.parent().exists()) {
-                this.parent().mkdir(parents, permission);
-            }
-        }
+        // MKDIRS creates missing parents itself, probing each ancestor first only costs extra round trips
         return mkdirInner(permission);
     }
 
+    public void setPermission(String permission) {
+        WebHdfsQuery params = WebHdfsQuery.create().add("permission", permission);
+        client.requestAny("PUT", encodedPath(), "SETPERMISSION", params).close();
+        this.isExtented = false;
+    }
+
+    public void setOwner(String owner, String group) {
+        WebHdfsQuery params = WebHdfsQuery.create().add("owner", owner).add("group", group);
+        client.requestAny("PUT", encodedPath(), "SETOWNER", params).close();
+        this.isExtented = false;
+    }
+
+    /**
+     * Sets the times in milliseconds since the epoch; null leaves a time unchanged.
+     */
+    public void setTimes(Long modificationTime, Long accessTime) {
+        WebHdfsQuery params = WebHdfsQuery.create()
+            .add("modificationtime", modificationTime != null ? modificationTime : -1L)
+            .add("accesstime", accessTime != null ? accessTime : -1L);
+        client.requestAny("PUT", encodedPath(), "SETTIMES", params).close();
+        this.isExtented = false;
+    }
+
     public boolean isDir() {
         extendStat();
         return isdir;
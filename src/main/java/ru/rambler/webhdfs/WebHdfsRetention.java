@@ -0,0 +1,352 @@
+package ru.rambler.webhdfs;
+
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Expires old data under a root. Every entry is checked against a {@link Policy}; an expired file is deleted, and an
+ * expired directory is deleted as a whole with a single recursive DELETE instead of being descended into. Listings
+ * and deletes run on a bounded pool, deletes additionally under a token bucket of deletes per second.
+ */
+public class WebHdfsRetention {
+    Policy policy;
+    Options options;
+    final Logger logger = LoggerFactory.getLogger(WebHdfsRetention.class);
+
+    public WebHdfsRetention(Policy policy, Options options) {
+        this.policy = policy;
+        this.options = options;
+    }
+
+    public WebHdfsRetention(Policy policy) {
+        this(policy, Options.create());
+    }
+
+    /**
+     * Decides whether an entry is expired. The path is relative to the cleaned root, with '/' separators.
+     */
+    public interface Policy {
+        boolean expired(String path, WebHdfsResource resource, long now);
+
+        /**
+         * Expires entries not modified within the age. HDFS updates the modificationTime of a directory only when its
+         * direct children change, so a directory expires only when nothing anywhere in its subtree is newer; the
+         * subtree is listed until a newer entry turns up, and the answer for every listed directory is kept for the
+         * rest of the run. Files still being written count with the modificationTime HDFS reports for them.
+         */
+        static Policy olderThan(long maxAge, TimeUnit unit) {
+            long millis = unit.toMillis(maxAge);
+            AtomicReference<ModifiedSince> memo = new AtomicReference<ModifiedSince>();
+            return (path, resource, now) -> {
+                if (now - resource.getModificationTime() <= millis) {
+                    return false;
+                }
+                if (!resource.isDir()) {
+                    return true;
+                }
+                // A run checks everything at the same time, so a new time means a new run
+                long time = now - millis;
+                ModifiedSince since = memo.updateAndGet(m -> m != null && m.time == time ? m : new ModifiedSince(time));
+                return !since.test(resource);
+            };
+        }
+
+        /**
+         * Matches the relative path against a glob: "dt=*" only matches children of the root, "**&#47;dt=*" only
+         * deeper entries.
+         */
+        static Policy matching(String glob) {
+            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+            return (path, resource, now) -> matcher.matches(Paths.get(path));
+        }
+
+        static Policy filesOnly() {
+            return (path, resource, now) -> !resource.isDir();
+        }
+
+        default Policy and(Policy other) {
+            return (path, resource, now) -> expired(path, resource, now) && other.expired(path, resource, now);
+        }
+
+        default Policy or(Policy other) {
+            return (path, resource, now) -> expired(path, resource, now) || other.expired(path, resource, now);
+        }
+    }
+
+    public static class Options {
+        int parallelism = 8;
+        double deletesPerSecond = 0;
+        int maxDepth = Integer.MAX_VALUE;
+        boolean dryRun = false;
+        Listener listener = new Listener() {
+        };
+
+        public static Options create() {
+            return new Options();
+        }
+
+        public Options parallelism(int parallelism) {
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Caps the DELETE rate; zero or less means no cap.
+         */
+        public Options deletesPerSecond(double deletesPerSecond) {
+            this.deletesPerSecond = deletesPerSecond;
+            return this;
+        }
+
+        /**
+         * Directories deeper than this are neither listed nor checked; 1 checks only the children of the root.
+         */
+        public Options maxDepth(int maxDepth) {
+            this.maxDepth = maxDepth;
+            return this;
+        }
+
+        public Options dryRun(boolean dryRun) {
+            this.dryRun = dryRun;
+            return this;
+        }
+
+        public Options listener(Listener listener) {
+            this.listener = listener;
+            return this;
+        }
+    }
+
+    /**
+     * Progress callbacks, invoked from the worker threads. Paths are relative to the cleaned root.
+     */
+    public interface Listener {
+        default void deleted(String path, boolean isDir) {
+        }
+
+        default void failed(String path, Exception error) {
+        }
+    }
+
+    public static class Report {
+        boolean dryRun;
+        List<String> files = Collections.synchronizedList(new ArrayList<String>());
+        List<String> directories = Collections.synchronizedList(new ArrayList<String>());
+        AtomicLong fileBytes = new AtomicLong();
+        AtomicLong kept = new AtomicLong();
+        AtomicLong listed = new AtomicLong();
+        Map<String, Exception> failures = new ConcurrentHashMap<String, Exception>();
+
+        public boolean isDryRun() {
+            return dryRun;
+        }
+
+        /**
+         * Expired files deleted one by one, or to be deleted on a dry run.
+         */
+        public List<String> getFiles() {
+            return files;
+        }
+
+        /**
+         * Expired directories deleted recursively, or to be deleted on a dry run.
+         */
+        public List<String> getDirectories() {
+            return directories;
+        }
+
+        /**
+         * Total length of the expired files; the contents of expired directories are not counted.
+         */
+        public long getFileBytes() {
+            return fileBytes.get();
+        }
+
+        public long getKept() {
+            return kept.get();
+        }
+
+        public long getListed() {
+            return listed.get();
+        }
+
+        public Map<String, Exception> getFailures() {
+            return failures;
+        }
+
+        @Override
+        public String toString() {
+            return "Report{" + "dryRun=" + dryRun + ", files=" + files.size() + ", directories=" + directories.size()
+                + ", fileBytes=" + fileBytes + ", kept=" + kept + ", listed=" + listed + ", failures="
+                + failures.size() + '}';
+        }
+    }
+
+    /**
+     * Token bucket holding up to one second worth of permits. A caller that finds it empty takes a permit on credit
+     * and sleeps until it is paid off, so waiting callers are served in arrival order.
+     */
+    static class RateLimiter {
+        double permitsPerSecond;
+        double permits;
+        long refilledAt = System.nanoTime();
+
+        RateLimiter(double permitsPerSecond) {
+            this.permitsPerSecond = permitsPerSecond;
+            this.permits = Math.max(1, permitsPerSecond);
+        }
+
+        void acquire() {
+            long wait;
+            synchronized (this) {
+                long now = System.nanoTime();
+                permits = Math.min(
+                    Math.max(1, permitsPerSecond), permits + (now - refilledAt) * permitsPerSecond / 1e9
+                );
+                refilledAt = now;
+                permits -= 1;
+                wait = permits >= 0 ? 0 : (long) (-permits * 1e9 / permitsPerSecond);
+            }
+            if (wait > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for a delete permit", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Which directories have an entry modified since the time anywhere in their subtree. Answers are remembered, so
+     * checking a directory and then each of its subdirectories lists every directory at most once.
+     */
+    static class ModifiedSince {
+        long time;
+        Map<Path, Boolean> known = new ConcurrentHashMap<Path, Boolean>();
+
+        ModifiedSince(long time) {
+            this.time = time;
+        }
+
+        boolean test(WebHdfsResource dir) {
+            Boolean cached = known.get(dir.getPath());
+            if (cached != null) {
+                return cached;
+            }
+            boolean modified = false;
+            for (WebHdfsResource child : dir.listResources()) {
+                if (child.getModificationTime() >= time || (child.isDir() && test(child))) {
+                    modified = true;
+                    break;
+                }
+            }
+            known.put(dir.getPath(), modified);
+            return modified;
+        }
+    }
+
+    static String childPath(String dir, String name) {
+        return dir.isEmpty() ? name : dir + "/" + name;
+    }
+
+    public Report clean(WebHdfsResource root) {
+        Report report = new Report();
+        report.dryRun = options.dryRun;
+        Run run = new Run(report, System.currentTimeMillis());
+        try {
+            run.visit(root, "", 1).join();
+        } finally {
+            run.executor.shutdown();
+        }
+        Collections.sort(report.files);
+        Collections.sort(report.directories);
+        logger.info("Retention of {}: {}", root, report);
+        return report;
+    }
+
+    class Run {
+        Report report;
+        long now;
+        ExecutorService executor = Executors.newFixedThreadPool(options.parallelism);
+        RateLimiter limiter = options.deletesPerSecond > 0 ? new RateLimiter(options.deletesPerSecond) : null;
+
+        Run(Report report, long now) {
+            this.report = report;
+            this.now = now;
+        }
+
+        void fail(String path, Throwable error) {
+            if (error instanceof CompletionException && error.getCause() != null) {
+                error = error.getCause();
+            }
+            Exception exception = error instanceof Exception ? (Exception) error : new RuntimeException(error);
+            logger.warn("Retention of '{}' failed", path, exception);
+            report.failures.put(path, exception);
+            options.listener.failed(path, exception);
+        }
+
+        CompletableFuture<Void> visit(WebHdfsResource dir, String path, int depth) {
+            return CompletableFuture.supplyAsync(dir::listResources, executor).thenCompose(children -> {
+                report.listed.incrementAndGet();
+                List<CompletableFuture<Void>> tasks = new ArrayList<CompletableFuture<Void>>();
+                for (WebHdfsResource child : children) {
+                    tasks.add(check(child, childPath(path, child.getBaseName()), depth));
+                }
+                return CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0]));
+            }).exceptionally(e -> {
+                fail(path, e);
+                return null;
+            });
+        }
+
+        CompletableFuture<Void> check(WebHdfsResource child, String path, int depth) {
+            boolean isDir = child.isDir();
+            if (!policy.expired(path, child, now)) {
+                report.kept.incrementAndGet();
+                return isDir && depth < options.maxDepth
+                    ? visit(child, path, depth + 1) : CompletableFuture.completedFuture(null);
+            }
+
+            if (isDir) {
+                report.directories.add(path);
+            } else {
+                report.files.add(path);
+                report.fileBytes.addAndGet(child.getLength());
+            }
+            if (options.dryRun) {
+                return CompletableFuture.completedFuture(null);
+            }
+            return CompletableFuture.runAsync(() -> {
+                if (limiter != null) {
+                    limiter.acquire();
+                }
+                child.remove(isDir);
+                options.listener.deleted(path, isDir);
+            }, executor).exceptionally(e -> {
+                fail(path, e);
+                return null;
+            });
+        }
+    }
+}
@@ -0,0 +1,373 @@
+package ru.rambler.webhdfs;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Finds namespace changes under a root by diffing a fresh crawl against the index persisted by the previous one.
+ * A directory whose fileId and modificationTime match the index has the same set of children, so it is not listed
+ * again: its files are carried over and only its subdirectories are stat'ed and descended into. Appends to files in
+ * such directories are not seen in this mode; disable {@link #trustDirectoryTimes(boolean)} to list every directory.
+ *
+ * <p>
+ * The new index is written in path order while crawling and checkpointed every {@link #checkpointInterval(int)}
+ * entries. A crawl started after a crash resumes behind the last checkpoint; changes past it may be reported twice.
+ */
+public class WebHdfsScanner {
+    public static int DEFAULT_CHECKPOINT_INTERVAL = 100000;
+
+    Path directory;
+    boolean trustDirectoryTimes = true;
+    int checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+    final Logger logger = LoggerFactory.getLogger(WebHdfsScanner.class);
+
+    public enum ChangeType {
+        ADDED, MODIFIED, REMOVED
+    }
+
+    public interface Listener {
+        void onChange(ChangeType type, WebHdfsNamespaceIndex.Entry entry);
+    }
+
+    public static class Result {
+        long added;
+        long modified;
+        long removed;
+        long listed;
+        long skipped;
+        long entries;
+
+        public long getAdded() {
+            return added;
+        }
+
+        public long getModified() {
+            return modified;
+        }
+
+        public long getRemoved() {
+            return removed;
+        }
+
+        public long getListed() {
+            return listed;
+        }
+
+        public long getSkipped() {
+            return skipped;
+        }
+
+        public long getEntries() {
+            return entries;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{" + "added=" + added + ", modified=" + modified + ", removed=" + removed + ", listed="
+                + listed + ", skipped=" + skipped + ", entries=" + entries + '}';
+        }
+    }
+
+    public WebHdfsScanner(Path directory) {
+        this.directory = directory;
+    }
+
+    public WebHdfsScanner trustDirectoryTimes(boolean trustDirectoryTimes) {
+        this.trustDirectoryTimes = trustDirectoryTimes;
+        return this;
+    }
+
+    public WebHdfsScanner checkpointInterval(int checkpointInterval) {
+        this.checkpointInterval = checkpointInterval;
+        return this;
+    }
+
+    Path dataFile(long generation) {
+        return directory.resolve("index-" + generation + ".dat");
+    }
+
+    Path offsetsFile(long generation) {
+        return directory.resolve("index-" + generation + ".idx");
+    }
+
+    Properties load(String name) {
+        Properties properties = new Properties();
+        Path file = directory.resolve(name);
+        if (Files.exists(file)) {
+            try (InputStream in = Files.newInputStream(file)) {
+                properties.load(in);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return properties;
+    }
+
+    void store(String name, Properties properties) {
+        try {
+            Path tmp = directory.resolve(name + ".tmp");
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                properties.store(out, null);
+            }
+            Files.move(
+                tmp, directory.resolve(name), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE
+            );
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    long currentGeneration() {
+        return Long.parseLong(load("CURRENT").getProperty("generation", "0"));
+    }
+
+    public WebHdfsNamespaceIndex index() {
+        long generation = currentGeneration();
+        if (generation == 0) {
+            return WebHdfsNamespaceIndex.empty();
+        }
+        return new WebHdfsNamespaceIndex(dataFile(generation), offsetsFile(generation));
+    }
+
+    public Result scan(WebHdfsResource root, Listener listener) {
+        long generation = currentGeneration();
+        long next = generation + 1;
+        Properties checkpoint = load("CHECKPOINT");
+
+        String resumeAfter = null;
+        WebHdfsNamespaceIndex.Writer writer;
+        if (Long.parseLong(checkpoint.getProperty("generation", "0")) == next) {
+            resumeAfter = checkpoint.getProperty("last");
+            writer = new WebHdfsNamespaceIndex.Writer(
+                dataFile(next), offsetsFile(next), Long.parseLong(checkpoint.getProperty("dataSize")),
+                Long.parseLong(checkpoint.getProperty("offsetsSize")), resumeAfter
+            );
+            logger.info("Resuming crawl of {} after '{}'", root, resumeAfter);
+        } else {
+            writer = new WebHdfsNamespaceIndex.Writer(dataFile(next), offsetsFile(next));
+        }
+
+        Crawl crawl = new Crawl(index(), writer, listener, resumeAfter, next);
+        try {
+            crawl.run(root);
+        } finally {
+            crawl.old.close();
+            writer.close();
+        }
+
+        Properties current = new Properties();
+        current.setProperty("generation", Long.toString(next));
+        store("CURRENT", current);
+        try {
+            Files.deleteIfExists(directory.resolve("CHECKPOINT"));
+            Files.deleteIfExists(dataFile(generation));
+            Files.deleteIfExists(offsetsFile(generation));
+        } catch (IOException e) {
+            logger.warn("Failed to clean up previous index", e);
+        }
+        logger.info("Crawl of {} finished: {}", root, crawl.result);
+        return crawl.result;
+    }
+
+    class Crawl {
+        WebHdfsNamespaceIndex old;
+        WebHdfsNamespaceIndex.Writer writer;
+        Listener listener;
+        String resumeAfter;
+        long generation;
+        long sinceCheckpoint;
+        Result result = new Result();
+
+        Crawl(
+            WebHdfsNamespaceIndex old, WebHdfsNamespaceIndex.Writer writer, Listener listener, String resumeAfter,
+            long generation
+        ) {
+            this.old = old;
+            this.writer = writer;
+            this.listener = listener;
+            this.resumeAfter = resumeAfter;
+            this.generation = generation;
+        }
+
+        boolean done(String path) {
+            return resumeAfter != null && WebHdfsNamespaceIndex.compare(path, resumeAfter) <= 0;
+        }
+
+        void emit(ChangeType type, WebHdfsNamespaceIndex.Entry entry) {
+            if (done(entry.getPath())) {
+                return;
+            }
+            if (type == ChangeType.ADDED) {
+                result.added++;
+            } else if (type == ChangeType.MODIFIED) {
+                result.modified++;
+            } else {
+                result.removed++;
+            }
+            listener.onChange(type, entry);
+        }
+
+        void write(WebHdfsNamespaceIndex.Entry entry) {
+            result.entries++;
+            if (done(entry.getPath())) {
+                return;
+            }
+            writer.append(entry);
+            sinceCheckpoint++;
+        }
+
+        void checkpoint() {
+            if (sinceCheckpoint < checkpointInterval || writer.getLast() == null) {
+                return;
+            }
+            writer.sync();
+            Properties checkpoint = new Properties();
+            checkpoint.setProperty("generation", Long.toString(generation));
+            checkpoint.setProperty("dataSize", Long.toString(writer.getDataSize()));
+            checkpoint.setProperty("offsetsSize", Long.toString(writer.getOffsetsSize()));
+            checkpoint.setProperty("last", writer.getLast());
+            store("CHECKPOINT", checkpoint);
+            sinceCheckpoint = 0;
+        }
+
+        /**
+         * True when the subtree of the path lies wholly before the resume point and needs no listing.
+         */
+        boolean skipSubtree(String path) {
+            return done(path) && !path.equals(resumeAfter) && !WebHdfsNamespaceIndex.isUnder(resumeAfter, path);
+        }
+
+        void run(WebHdfsResource root) {
+            root.extendStat();
+            WebHdfsNamespaceIndex.Entry entry = WebHdfsNamespaceIndex.Entry.of("", root);
+            int oldIdx = old.find("");
+            if (oldIdx < 0) {
+                emit(ChangeType.ADDED, entry);
+            }
+            write(entry);
+            visit(root, entry, oldIdx);
+        }
+
+        String childPath(String dir, String name) {
+            return dir.isEmpty() ? name : dir + "/" + name;
+        }
+
+        String nameOf(String path) {
+            return path.substring(path.lastIndexOf('/') + 1);
+        }
+
+        void removeSubtree(int oldIdx) {
+            int end = old.subtreeEnd(oldIdx);
+            for (int i = oldIdx; i < end; i++) {
+                emit(ChangeType.REMOVED, old.get(i));
+            }
+        }
+
+        void visit(WebHdfsResource dir, WebHdfsNamespaceIndex.Entry entry, int oldIdx) {
+            WebHdfsNamespaceIndex.Entry previous = oldIdx >= 0 ? old.get(oldIdx) : null;
+            if (previous != null && !previous.isDir()) {
+                previous = null;
+                oldIdx = -1;
+            }
+
+            if (trustDirectoryTimes && previous != null && previous.getFileId() == entry.getFileId()
+                && previous.getModificationTime() == entry.getModificationTime()) {
+                visitUnchanged(dir, entry, oldIdx);
+            } else {
+                visitListed(dir, entry, oldIdx);
+            }
+            checkpoint();
+        }
+
+        void visitUnchanged(WebHdfsResource dir, WebHdfsNamespaceIndex.Entry entry, int oldIdx) {
+            result.skipped++;
+            int end = old.subtreeEnd(oldIdx);
+            for (int i = oldIdx + 1; i < end; i = old.subtreeEnd(i)) {
+                WebHdfsNamespaceIndex.Entry child = old.get(i);
+                if (!child.isDir()) {
+                    write(child);
+                    continue;
+                }
+                if (skipSubtree(child.getPath())) {
+                    continue;
+                }
+
+                WebHdfsResource childResource = dir.child(nameOf(child.getPath()));
+                try {
+                    childResource.extendStat();
+                } catch (WebHdfsClient.NotFound e) {
+                    removeSubtree(i);
+                    continue;
+                }
+                WebHdfsNamespaceIndex.Entry current = WebHdfsNamespaceIndex.Entry.of(child.getPath(), childResource);
+                if (!current.isDir()) {
+                    removeSubtree(i);
+                    emit(ChangeType.ADDED, current);
+                    write(current);
+                    continue;
+                }
+                write(current);
+                visit(childResource, current, i);
+            }
+        }
+
+        void visitListed(WebHdfsResource dir, WebHdfsNamespaceIndex.Entry entry, int oldIdx) {
+            result.listed++;
+            List<WebHdfsResource> children = dir.listResources();
+            children.sort(Comparator.comparing(WebHdfsResource::getBaseName));
+
+            int j = oldIdx >= 0 ? oldIdx + 1 : 0;
+            int oldEnd = oldIdx >= 0 ? old.subtreeEnd(oldIdx) : 0;
+            for (WebHdfsResource child : children) {
+                String path = childPath(entry.getPath(), child.getBaseName());
+                while (j < oldEnd && WebHdfsNamespaceIndex.compare(old.path(j), path) < 0) {
+                    removeSubtree(j);
+                    j = old.subtreeEnd(j);
+                }
+
+                WebHdfsNamespaceIndex.Entry current = WebHdfsNamespaceIndex.Entry.of(path, child);
+                int childOld = -1;
+                if (j < oldEnd && old.path(j).equals(path)) {
+                    childOld = j;
+                    j = old.subtreeEnd(j);
+                }
+                WebHdfsNamespaceIndex.Entry previous = childOld >= 0 ? old.get(childOld) : null;
+
+                if (previous == null) {
+                    emit(ChangeType.ADDED, current);
+                } else if (previous.isDir() != current.isDir()) {
+                    removeSubtree(childOld);
+                    emit(ChangeType.ADDED, current);
+                    childOld = -1;
+                } else if (!current.isDir() && (previous.getFileId() != current.getFileId()
+                    || previous.getLength() != current.getLength()
+                    || previous.getModificationTime() != current.getModificationTime())) {
+                    emit(ChangeType.MODIFIED, current);
+                }
+                write(current);
+
+                if (current.isDir() && !skipSubtree(path)) {
+                    visit(child, current, childOld);
+                }
+            }
+            while (j < oldEnd) {
+                removeSubtree(j);
+                j = old.subtreeEnd(j);
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package ru.rambler.webhdfs;
+
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+
+/**
+ * Streams the entries of a GETSNAPSHOTDIFF response one by one, without building the whole report in memory. A
+ * response ending before the closing bracket of its diffList, or having none, fails with a JSONException.
+ */
+public class WebHdfsSnapshotDiff implements Iterator<WebHdfsSnapshotDiff.Entry>, Closeable {
+    WebHdfsResource root;
+    InputStream content;
+    JSONTokener tokener;
+    boolean inList;
+    boolean complete;
+    Entry next;
+
+    public enum Type {
+        CREATE, MODIFY, DELETE, RENAME
+    }
+
+    public static class Entry {
+        private Type type;
+        private Path sourcePath;
+        private Path targetPath;
+
+        public Entry(Type type, Path sourcePath, Path targetPath) {
+            this.type = type;
+            this.sourcePath = sourcePath;
+            this.targetPath = targetPath;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public Path getSourcePath() {
+            return sourcePath;
+        }
+
+        /**
+         * Destination of a RENAME, null for other types.
+         */
+        public Path getTargetPath() {
+            return targetPath;
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{" + "type=" + type + ", sourcePath=" + sourcePath
+                + (targetPath != null ? ", targetPath=" + targetPath : "") + '}';
+        }
+    }
+
+    public WebHdfsSnapshotDiff(WebHdfsResource root, InputStream content) {
+        this.root = root;
+        this.content = content;
+        this.tokener = new JSONTokener(new InputStreamReader(content, StandardCharsets.UTF_8));
+        seekDiffList();
+        this.inList = true;
+    }
+
+    void expect(char expected) {
+        char c = tokener.nextClean();
+        if (c != expected) {
+            throw tokener.syntaxError("Expected '" + expected + "' but got '" + c + "'");
+        }
+    }
+
+    /**
+     * Walks the enclosing objects up to the opening bracket of "diffList", skipping every other member.
+     */
+    void seekDiffList() {
+        expect('{');
+        while (true) {
+            char c = tokener.nextClean();
+            if (c == 0) {
+                throw tokener.syntaxError("Snapshot diff ended before its diffList");
+            }
+            if (c == '}') {
+                throw tokener.syntaxError("Snapshot diff has no diffList");
+            }
+            if (c != ',') {
+                tokener.back();
+            }
+
+            String key = tokener.nextValue().toString();
+            expect(':');
+            if (key.equals("SnapshotDiffReport")) {
+                seekDiffList();
+                return;
+            } else if (key.equals("diffList")) {
+                expect('[');
+                return;
+            }
+            tokener.nextValue();
+        }
+    }
+
+    Entry parse(JSONObject entry) {
+        Path source = root.getPath().resolve(entry.getString("sourcePath"));
+        Path target = null;
+        if (entry.has("targetPath") && !entry.isNull("targetPath")) {
+            target = root.getPath().resolve(entry.getString("targetPath"));
+        }
+        return new Entry(Type.valueOf(entry.getString("type")), source, target);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next != null) {
+            return true;
+        }
+        if (!inList) {
+            return false;
+        }
+
+        char c = tokener.nextClean();
+        if (c == ',') {
+            c = tokener.nextClean();
+        }
+        if (c == 0) {
+            throw tokener.syntaxError("Snapshot diff ended before the end of its diffList");
+        }
+        if (c == ']') {
+            complete = true;
+            inList = false;
+            close();
+            return false;
+        }
+        tokener.back();
+        next = parse((JSONObject) tokener.nextValue());
+        return true;
+    }
+
+    @Override
+    public Entry next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Entry entry = next;
+        next = null;
+        return entry;
+    }
+
+    /**
+     * Whether the whole diffList was read, as opposed to the iteration stopping early on close.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public Stream<Entry> stream() {
+        return StreamSupport
+            .stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+            .onClose(this::close);
+    }
+
+    @Override
+    public void close() {
+        inList = false;
+        try {
+            content.close();
+        } catch (IOException e) {
+            throw new WebHdfsClient.NetworkError(e);
+        }
+    }
+}
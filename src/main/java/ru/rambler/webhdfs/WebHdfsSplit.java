@@ -0,0 +1,57 @@
+package ru.rambler.webhdfs;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+public class WebHdfsSplit {
+    private WebHdfsResource resource;
+    private long start;
+    private long length;
+
+    public WebHdfsSplit(WebHdfsResource resource, long start, long length) {
+        this.resource = resource;
+        this.start = start;
+        this.length = length;
+    }
+
+    public static List<WebHdfsSplit> of(WebHdfsResource resource) {
+        return of(resource, resource.getBlockSize());
+    }
+
+    public static List<WebHdfsSplit> of(WebHdfsResource resource, long splitSize) {
+        if (splitSize <= 0) {
+            throw new IllegalArgumentException("Split size must be positive");
+        }
+
+        long fileLength = resource.getLength();
+        List<WebHdfsSplit> splits = new ArrayList<WebHdfsSplit>();
+        for (long start = 0; start < fileLength; start += splitSize) {
+            splits.add(new WebHdfsSplit(resource, start, Math.min(splitSize, fileLength - start)));
+        }
+        return splits;
+    }
+
+    @Override
+    public String toString() {
+        return "WebHdfsSplit{" + "path=" + resource.getPath().toAbsolutePath().toString() + ", start=" + start
+            + ", length=" + length + '}';
+    }
+
+    public WebHdfsResource getResource() {
+        return resource;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public long getEnd() {
+        return start + length;
+    }
+}
@@ -0,0 +1,502 @@
+package ru.rambler.webhdfs;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * One-way incremental copy of a local directory into HDFS. A file is uploaded when it is missing remotely, differs in
+ * length, or is newer than the remote copy; with checksums enabled, files of equal length are compared by the HDFS
+ * MD5-of-MD5-of-CRC checksum instead of modification times.
+ */
+public class WebHdfsSync {
+    static final Pattern CHECKSUM_ALGORITHM = Pattern.compile("MD5-of-(\\d+)MD5-of-(\\d+)(CRC32C?)");
+
+    Options options;
+    final Logger logger = LoggerFactory.getLogger(WebHdfsSync.class);
+
+    public WebHdfsSync(Options options) {
+        this.options = options;
+    }
+
+    public WebHdfsSync() {
+        this(Options.create());
+    }
+
+    public static class Options {
+        int parallelism = 4;
+        boolean checksum = false;
+        boolean delete = false;
+        boolean dryRun = false;
+        Long bufferSize = null;
+        Listener listener = new Listener() {
+        };
+
+        public static Options create() {
+            return new Options();
+        }
+
+        public Options parallelism(int parallelism) {
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        public Options checksum(boolean checksum) {
+            this.checksum = checksum;
+            return this;
+        }
+
+        public Options delete(boolean delete) {
+            this.delete = delete;
+            return this;
+        }
+
+        public Options dryRun(boolean dryRun) {
+            this.dryRun = dryRun;
+            return this;
+        }
+
+        public Options bufferSize(Long bufferSize) {
+            this.bufferSize = bufferSize;
+            return this;
+        }
+
+        public Options listener(Listener listener) {
+            this.listener = listener;
+            return this;
+        }
+    }
+
+    /**
+     * Progress callbacks, invoked from the worker threads. Paths are relative to the synced roots.
+     */
+    public interface Listener {
+        default void planned(Report report) {
+        }
+
+        default void uploaded(String path, long bytes) {
+        }
+
+        default void created(String path) {
+        }
+
+        default void deleted(String path) {
+        }
+
+        default void failed(String path, Exception error) {
+        }
+    }
+
+    public static class Report {
+        boolean dryRun;
+        long unchanged;
+        List<String> uploads = new ArrayList<String>();
+        List<String> mkdirs = new ArrayList<String>();
+        List<String> deletes = new ArrayList<String>();
+        long plannedBytes;
+        AtomicLong uploadedBytes = new AtomicLong();
+        Map<String, Exception> failures = new ConcurrentHashMap<String, Exception>();
+
+        public boolean isDryRun() {
+            return dryRun;
+        }
+
+        public long getUnchanged() {
+            return unchanged;
+        }
+
+        public List<String> getUploads() {
+            return uploads;
+        }
+
+        public List<String> getMkdirs() {
+            return mkdirs;
+        }
+
+        public List<String> getDeletes() {
+            return deletes;
+        }
+
+        public long getPlannedBytes() {
+            return plannedBytes;
+        }
+
+        public long getUploadedBytes() {
+            return uploadedBytes.get();
+        }
+
+        public Map<String, Exception> getFailures() {
+            return failures;
+        }
+
+        @Override
+        public String toString() {
+            return "Report{" + "dryRun=" + dryRun + ", unchanged=" + unchanged + ", uploads=" + uploads.size()
+                + ", mkdirs=" + mkdirs.size() + ", deletes=" + deletes.size() + ", plannedBytes=" + plannedBytes
+                + ", uploadedBytes=" + getUploadedBytes() + ", failures=" + failures.size() + '}';
+        }
+    }
+
+    static class LocalEntry {
+        Path path;
+        boolean isDir;
+        long length;
+        long modificationTime;
+
+        LocalEntry(Path path, BasicFileAttributes attributes) {
+            this.path = path;
+            this.isDir = attributes.isDirectory();
+            this.length = attributes.size();
+            this.modificationTime = attributes.lastModifiedTime().toMillis();
+        }
+    }
+
+    static String relative(Path root, Path path) {
+        StringBuilder builder = new StringBuilder();
+        for (Path name : root.relativize(path)) {
+            if (builder.length() > 0) {
+                builder.append('/');
+            }
+            builder.append(name.toString());
+        }
+        return builder.toString();
+    }
+
+    static String parentOf(String relative) {
+        int slash = relative.lastIndexOf('/');
+        return slash < 0 ? "" : relative.substring(0, slash);
+    }
+
+    Map<String, LocalEntry> walkLocal(Path root) {
+        Map<String, LocalEntry> entries = new HashMap<String, LocalEntry>();
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                if (!path.equals(root)) {
+                    BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                    entries.put(relative(root, path), new LocalEntry(path, attributes));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return entries;
+    }
+
+    Map<String, WebHdfsResource> walkRemote(WebHdfsResource root) {
+        if (!root.exists()) {
+            return Collections.emptyMap();
+        }
+        return root.stream(true).parallel().collect(
+            Collectors.toConcurrentMap(res -> relative(root.getPath(), res.getPath()), res -> res)
+        );
+    }
+
+    static String localChecksum(Path file, long blockSize, int bytesPerCrc, boolean castagnoli) {
+        try (InputStream data = Files.newInputStream(file)) {
+            MessageDigest fileMd5 = MessageDigest.getInstance("MD5");
+            MessageDigest blockMd5 = MessageDigest.getInstance("MD5");
+            Checksum crc = castagnoli ? new CRC32C() : new CRC32();
+            byte[] chunk = new byte[bytesPerCrc];
+            byte[] crcBytes = new byte[4];
+            long inBlock = 0;
+
+            while (true) {
+                int n = 0;
+                int r;
+                while (n < chunk.length && (r = data.read(chunk, n, chunk.length - n)) >= 0) {
+                    n += r;
+                }
+                if (n == 0) {
+                    break;
+                }
+
+                crc.reset();
+                crc.update(chunk, 0, n);
+                int value = (int) crc.getValue();
+                crcBytes[0] = (byte) (value >>> 24);
+                crcBytes[1] = (byte) (value >>> 16);
+                crcBytes[2] = (byte) (value >>> 8);
+                crcBytes[3] = (byte) value;
+                blockMd5.update(crcBytes);
+
+                inBlock += n;
+                if (inBlock >= blockSize) {
+                    fileMd5.update(blockMd5.digest());
+                    inBlock = 0;
+                }
+                if (n < chunk.length) {
+                    break;
+                }
+            }
+            if (inBlock > 0) {
+                fileMd5.update(blockMd5.digest());
+            }
+
+            StringBuilder hex = new StringBuilder();
+            for (byte b : fileMd5.digest()) {
+                hex.append(Integer.toString((b & 0xff) + 0x100, 16).substring(1));
+            }
+            return hex.toString();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    boolean sameChecksum(LocalEntry local, WebHdfsResource remote) {
+        JSONObject checksum = remote.getFileChecksum();
+        Matcher algorithm = CHECKSUM_ALGORITHM.matcher(checksum.getString("algorithm"));
+        if (!algorithm.matches() || remote.getBlockSize() % Integer.parseInt(algorithm.group(2)) != 0) {
+            logger.debug("Unsupported checksum '{}' for {}", checksum.getString("algorithm"), remote);
+            return false;
+        }
+        String bytes = checksum.getString("bytes");
+        String localMd5 = localChecksum(
+            local.path, remote.getBlockSize(), Integer.parseInt(algorithm.group(2)), algorithm.group(3).equals("CRC32C")
+        );
+        return bytes.toLowerCase().endsWith(localMd5);
+    }
+
+    boolean changed(LocalEntry local, WebHdfsResource remote) {
+        if (local.length != remote.getLength()) {
+            return true;
+        }
+        if (options.checksum) {
+            return !sameChecksum(local, remote);
+        }
+        return local.modificationTime > remote.getModificationTime();
+    }
+
+    public Report sync(Path localDir, WebHdfsResource remoteDir) {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(2, options.parallelism));
+        try {
+            CompletableFuture<Map<String, LocalEntry>> localWalk = CompletableFuture
+                .supplyAsync(() -> walkLocal(localDir), executor);
+            CompletableFuture<Map<String, WebHdfsResource>> remoteWalk = CompletableFuture
+                .supplyAsync(() -> walkRemote(remoteDir), executor);
+            Map<String, LocalEntry> local = localWalk.join();
+            Map<String, WebHdfsResource> remote = remoteWalk.join();
+
+            Report report = new Report();
+            report.dryRun = options.dryRun;
+            Set<String> conflicts = plan(local, remote, report, executor);
+            options.listener.planned(report);
+            logger.info("Sync {} -> {}: {}", localDir, remoteDir, report);
+
+            if (!options.dryRun) {
+                execute(localDir, remoteDir, conflicts, report, executor);
+            }
+            return report;
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Compares the files present on both sides. Checksum comparisons cost a GETFILECHECKSUM and a full local read
+     * each, so they run on the executor; a file whose comparison fails counts as changed, and its upload reports any
+     * persisting failure.
+     */
+    Map<String, CompletableFuture<Boolean>> checkChanges(
+        Map<String, LocalEntry> local, Map<String, WebHdfsResource> remote, ExecutorService executor
+    ) {
+        Map<String, CompletableFuture<Boolean>> checks = new HashMap<String, CompletableFuture<Boolean>>();
+        for (Map.Entry<String, LocalEntry> entry : local.entrySet()) {
+            LocalEntry localEntry = entry.getValue();
+            WebHdfsResource remoteEntry = remote.get(entry.getKey());
+            if (localEntry.isDir || remoteEntry == null || remoteEntry.isDir()) {
+                continue;
+            }
+            if (options.checksum && localEntry.length == remoteEntry.getLength()) {
+                String path = entry.getKey();
+                checks.put(path, CompletableFuture.supplyAsync(() -> changed(localEntry, remoteEntry), executor)
+                    .exceptionally(e -> {
+                        logger.warn("Checksum comparison of '{}' failed, uploading it again", path, e);
+                        return true;
+                    }));
+            } else {
+                checks.put(entry.getKey(), CompletableFuture.completedFuture(changed(localEntry, remoteEntry)));
+            }
+        }
+        return checks;
+    }
+
+    Set<String> plan(
+        Map<String, LocalEntry> local, Map<String, WebHdfsResource> remote, Report report, ExecutorService executor
+    ) {
+        Map<String, CompletableFuture<Boolean>> checks = checkChanges(local, remote, executor);
+        Set<String> conflicts = new HashSet<String>();
+        Set<String> covered = new HashSet<String>();
+        TreeMap<String, LocalEntry> dirs = new TreeMap<String, LocalEntry>(Collections.reverseOrder());
+
+        for (Map.Entry<String, LocalEntry> entry : local.entrySet()) {
+            String path = entry.getKey();
+            LocalEntry localEntry = entry.getValue();
+            WebHdfsResource remoteEntry = remote.get(path);
+
+            if (localEntry.isDir) {
+                if (remoteEntry == null || !remoteEntry.isDir()) {
+                    dirs.put(path, localEntry);
+                }
+                if (remoteEntry != null && !remoteEntry.isDir()) {
+                    conflicts.add(path);
+                }
+                continue;
+            }
+
+            if (remoteEntry != null && remoteEntry.isDir()) {
+                conflicts.add(path);
+            } else if (remoteEntry != null && !checks.get(path).join()) {
+                report.unchanged++;
+                continue;
+            }
+            report.uploads.add(path);
+            report.plannedBytes += localEntry.length;
+            for (String parent = parentOf(path); !parent.isEmpty(); parent = parentOf(parent)) {
+                covered.add(parent);
+            }
+        }
+
+        // Deepest first: CREATE and MKDIRS make the missing parents themselves
+        for (String path : dirs.keySet()) {
+            if (covered.add(path)) {
+                report.mkdirs.add(path);
+                for (String parent = parentOf(path); !parent.isEmpty(); parent = parentOf(parent)) {
+                    covered.add(parent);
+                }
+            }
+        }
+
+        if (options.delete) {
+            Set<String> removed = new HashSet<String>();
+            for (String path : new TreeSet<String>(remote.keySet())) {
+                if (removed.contains(parentOf(path))) {
+                    removed.add(path);
+                } else if (!local.containsKey(path)) {
+                    removed.add(path);
+                    report.deletes.add(path);
+                }
+            }
+        } else {
+            for (String path : conflicts) {
+                report.failures.put(path, new WebHdfsClient.AlreadyExists("Type conflict with remote " + path));
+            }
+            report.uploads.removeAll(conflicts);
+            report.mkdirs.removeAll(conflicts);
+            conflicts.clear();
+        }
+
+        Collections.sort(report.uploads);
+        Collections.sort(report.mkdirs);
+        return conflicts;
+    }
+
+    void run(String path, Runnable action) {
+        try {
+            action.run();
+        } catch (RuntimeException e) {
+            logger.warn("Sync of '{}' failed", path, e);
+            options.listener.failed(path, e);
+            throw e;
+        }
+    }
+
+    CompletableFuture<Void> runAsync(String path, Runnable action, ExecutorService executor) {
+        return CompletableFuture.runAsync(() -> run(path, action), executor);
+    }
+
+    static CompletableFuture<Void> removalsOf(Map<String, CompletableFuture<Void>> removals, String path) {
+        CompletableFuture<Void> before = CompletableFuture.completedFuture(null);
+        for (String parent = path; !parent.isEmpty(); parent = parentOf(parent)) {
+            CompletableFuture<Void> removal = removals.get(parent);
+            if (removal != null) {
+                before = CompletableFuture.allOf(before, removal);
+            }
+        }
+        return before;
+    }
+
+    void execute(
+        Path localDir, WebHdfsResource remoteDir, Set<String> conflicts, Report report, ExecutorService executor
+    ) {
+        Map<String, CompletableFuture<Void>> removals = new HashMap<String, CompletableFuture<Void>>();
+        Map<String, CompletableFuture<Void>> tasks = new TreeMap<String, CompletableFuture<Void>>();
+
+        Set<String> toRemove = new TreeSet<String>(conflicts);
+        toRemove.addAll(report.deletes);
+        for (String path : toRemove) {
+            CompletableFuture<Void> removal = runAsync(path, () -> {
+                remoteDir.child(path).remove(true);
+                options.listener.deleted(path);
+            }, executor);
+            removals.put(path, removal);
+            tasks.put(path, removal);
+        }
+
+        for (String path : report.uploads) {
+            tasks.put(path, removalsOf(removals, path).thenRunAsync(() -> run(path, () -> {
+                Path file = localDir.resolve(path);
+                long bytes = file.toFile().length();
+                remoteDir.child(path).upload(file, true, null, null, null, options.bufferSize);
+                report.uploadedBytes.addAndGet(bytes);
+                options.listener.uploaded(path, bytes);
+            }), executor));
+        }
+        for (String path : report.mkdirs) {
+            tasks.put(path, removalsOf(removals, path).thenRunAsync(() -> run(path, () -> {
+                remoteDir.child(path).mkdir(false);
+                options.listener.created(path);
+            }), executor));
+        }
+
+        for (Map.Entry<String, CompletableFuture<Void>> task : tasks.entrySet()) {
+            try {
+                task.getValue().join();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                report.failures.put(
+                    task.getKey(), cause instanceof Exception ? (Exception) cause : new RuntimeException(cause)
+                );
+            }
+        }
+    }
+}
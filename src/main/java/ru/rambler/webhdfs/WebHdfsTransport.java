@@ -0,0 +1,293 @@
+package ru.rambler.webhdfs;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+
+
+/**
+ * Executes HTTP requests for {@link WebHdfsClient}. Implementations follow redirects of GET requests themselves and
+ * return redirects of other methods as is, since CREATE and APPEND must send their data to the DataNode given in the
+ * Location header. Bundled are {@link WebHdfsApacheTransport} and {@link WebHdfsJdkTransport}.
+ *
+ * <p>
+ * The reactive reads and writes go through {@link #executeAsync(Request, Executor)}. A transport with non-blocking
+ * I/O sends the {@link Body#publisher()} of the request and answers with a {@link Response#getPublisher()}, so no
+ * thread waits on the network; the default runs {@link #execute(Request)} on the executor instead.
+ */
+public interface WebHdfsTransport extends Closeable {
+    /**
+     * Sends the request and returns the response with its body still unread, whatever the status code.
+     */
+    Response execute(Request request) throws IOException;
+
+    /**
+     * Completes with the response once its headers arrive, the body still unread. The default holds a thread of the
+     * executor for the exchange and, as the body is then read from a stream, for the whole transfer.
+     */
+    default CompletableFuture<Response> executeAsync(Request request, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return execute(request);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    @Override
+    default void close() throws IOException {
+    }
+
+    class Request {
+        private String method;
+        private URI uri;
+        private Body body;
+        private Duration timeout;
+
+        public Request(String method, URI uri, Body body, Duration timeout) {
+            this.method = method;
+            this.uri = uri;
+            this.body = body;
+            this.timeout = timeout;
+        }
+
+        public Request(String method, URI uri, Body body) {
+            this(method, uri, body, null);
+        }
+
+        public Request(String method, URI uri) {
+            this(method, uri, null);
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public URI getUri() {
+            return uri;
+        }
+
+        /**
+         * Content to send, or null for none.
+         */
+        public Body getBody() {
+            return body;
+        }
+
+        /**
+         * Limit for connecting and waiting for the response, or null for the transport's default.
+         */
+        public Duration getTimeout() {
+            return timeout;
+        }
+
+        @Override
+        public String toString() {
+            return "Request{" + "method=" + method + ", uri=" + uri + '}';
+        }
+    }
+
+    /**
+     * Request content, always sent as application/octet-stream.
+     */
+    interface Body {
+        /**
+         * Length in bytes, or -1 when unknown and the content has to be sent chunked.
+         */
+        long getLength();
+
+        /**
+         * Whether {@link #open()} can be called more than once, e.g. to resend after a redirect.
+         */
+        default boolean isRepeatable() {
+            return false;
+        }
+
+        InputStream open() throws IOException;
+
+        /**
+         * The content as buffers for transports that send without blocking, or null if it is only available through
+         * {@link #open()}. Transports use one or the other, once.
+         */
+        default Flow.Publisher<ByteBuffer> publisher() {
+            return null;
+        }
+
+        default void writeTo(OutputStream out) throws IOException {
+            try (InputStream in = open()) {
+                in.transferTo(out);
+            }
+            out.flush();
+        }
+
+        static Body of(byte[] data) {
+            return new Body() {
+                @Override
+                public long getLength() {
+                    return data.length;
+                }
+
+                @Override
+                public boolean isRepeatable() {
+                    return true;
+                }
+
+                @Override
+                public InputStream open() {
+                    return new ByteArrayInputStream(data);
+                }
+
+                @Override
+                public void writeTo(OutputStream out) throws IOException {
+                    out.write(data);
+                    out.flush();
+                }
+            };
+        }
+
+        /**
+         * Strings are sent in ISO-8859-1, as they always were.
+         */
+        static Body of(String data) {
+            return of(data.getBytes(StandardCharsets.ISO_8859_1));
+        }
+
+        static Body of(InputStream data, long length) {
+            return new Body() {
+                @Override
+                public long getLength() {
+                    return length;
+                }
+
+                @Override
+                public InputStream open() {
+                    return data;
+                }
+            };
+        }
+
+        static Body of(InputStream data) {
+            return of(data, -1);
+        }
+    }
+
+    class Response implements Closeable {
+        private int statusCode;
+        private Map<String, String> headers;
+        private InputStream body;
+        private Flow.Publisher<List<ByteBuffer>> publisher;
+
+        /**
+         * Header names are matched case-insensitively; only the first value of each header is kept.
+         */
+        public Response(int statusCode, Map<String, String> headers, InputStream body) {
+            this.statusCode = statusCode;
+            this.headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+            this.headers.putAll(headers);
+            this.body = body != null ? body : InputStream.nullInputStream();
+        }
+
+        /**
+         * Response whose body arrives through a single-subscriber publisher, as from {@link #executeAsync}.
+         */
+        public Response(int statusCode, Map<String, String> headers, Flow.Publisher<List<ByteBuffer>> publisher) {
+            this.statusCode = statusCode;
+            this.headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+            this.headers.putAll(headers);
+            this.publisher = publisher;
+        }
+
+        public Response(int statusCode, InputStream body) {
+            this(statusCode, Collections.emptyMap(), body);
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        public String getHeader(String name) {
+            return headers.get(name);
+        }
+
+        /**
+         * The body as a stream; a published body is subscribed to for it, and blocks its reader as any stream would.
+         */
+        public InputStream getBody() {
+            if (body == null) {
+                HttpResponse.BodySubscriber<InputStream> stream = HttpResponse.BodySubscribers.ofInputStream();
+                publisher.subscribe(stream);
+                body = stream.getBody().toCompletableFuture().join();
+            }
+            return body;
+        }
+
+        /**
+         * The body as it arrives without blocking, or null if the transport only gave a stream.
+         */
+        public Flow.Publisher<List<ByteBuffer>> getPublisher() {
+            return body == null ? publisher : null;
+        }
+
+        public String readString() throws IOException {
+            try (InputStream in = getBody()) {
+                return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+        }
+
+        /**
+         * Drops the rest of the body, letting the connection be reused where the transport supports it.
+         */
+        @Override
+        public void close() {
+            if (body == null) {
+                publisher.subscribe(new Flow.Subscriber<List<ByteBuffer>>() {
+                    @Override
+                    public void onSubscribe(Flow.Subscription subscription) {
+                        subscription.cancel();
+                    }
+
+                    @Override
+                    public void onNext(List<ByteBuffer> item) {
+                    }
+
+                    @Override
+                    public void onError(Throwable throwable) {
+                    }
+
+                    @Override
+                    public void onComplete() {
+                    }
+                });
+                body = InputStream.nullInputStream();
+                return;
+            }
+            try {
+                body.close();
+            } catch (IOException ignored) {
+                // Nothing to recover, the response is not needed anymore
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Response{" + "statusCode=" + statusCode + '}';
+        }
+    }
+}
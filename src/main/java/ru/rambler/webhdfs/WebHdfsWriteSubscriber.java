@@ -0,0 +1,235 @@
+package ru.rambler.webhdfs;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Content of a CREATE taken from a publisher. It subscribes as soon as the write starts, so a hot publisher loses
+ * nothing while the NameNode answers, keeps at most prefetch buffers requested ahead of the upload and asks for the
+ * next one only after a buffer has been sent, so memory per transfer is bounded by the prefetch rather than by the
+ * speed of the publisher.
+ *
+ * <p>
+ * A transport with non-blocking I/O takes the buffers from {@link #publisher()} as its connection drains them, and no
+ * thread waits. Otherwise the request reads them from {@link #open()}, which blocks the thread running it, so each
+ * such write holds a thread of the executor for the whole upload.
+ */
+public class WebHdfsWriteSubscriber implements Flow.Subscriber<ByteBuffer>, WebHdfsTransport.Body {
+    public static int DEFAULT_PREFETCH = 4;
+
+    static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    Path path;
+    int prefetch;
+    BlockingQueue<ByteBuffer> received = new LinkedBlockingQueue<ByteBuffer>();
+    volatile Flow.Subscription subscription;
+    volatile Throwable error;
+    volatile Relay relay;
+    AtomicBoolean consumed = new AtomicBoolean();
+
+    public WebHdfsWriteSubscriber(Path path, int prefetch) {
+        this.path = path;
+        this.prefetch = prefetch;
+    }
+
+    /**
+     * The failure the publisher signalled, if any.
+     */
+    public Throwable getError() {
+        return error;
+    }
+
+    /**
+     * Stops the publisher, e.g. after the request failed.
+     */
+    public void cancel() {
+        Flow.Subscription current = subscription;
+        if (current != null) {
+            current.cancel();
+        }
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (this.subscription != null) {
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        subscription.request(prefetch);
+    }
+
+    @Override
+    public void onNext(ByteBuffer item) {
+        received.add(item);
+        relay();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        error = throwable;
+        received.add(END);
+        relay();
+    }
+
+    @Override
+    public void onComplete() {
+        received.add(END);
+        relay();
+    }
+
+    void relay() {
+        Relay current = relay;
+        if (current != null) {
+            current.drain();
+        }
+    }
+
+    @Override
+    public long getLength() {
+        return -1;
+    }
+
+    @Override
+    public Flow.Publisher<ByteBuffer> publisher() {
+        return subscriber -> {
+            if (!consumed.compareAndSet(false, true)) {
+                subscriber.onSubscribe(new Flow.Subscription() {
+                    @Override
+                    public void request(long n) {
+                    }
+
+                    @Override
+                    public void cancel() {
+                    }
+                });
+                subscriber.onError(new IllegalStateException("Content of " + path + " was already sent"));
+                return;
+            }
+            Relay current = new Relay(subscriber);
+            relay = current;
+            subscriber.onSubscribe(current);
+            current.drain();
+        };
+    }
+
+    @Override
+    public InputStream open() throws IOException {
+        if (!consumed.compareAndSet(false, true)) {
+            throw new IOException("Content of " + path + " was already sent");
+        }
+        return new BufferInputStream();
+    }
+
+    /**
+     * Hands the received buffers on as the transport demands them, on whichever thread signals last.
+     */
+    class Relay implements Flow.Subscription {
+        Flow.Subscriber<? super ByteBuffer> downstream;
+        AtomicLong demand = new AtomicLong();
+        AtomicInteger pending = new AtomicInteger();
+        volatile boolean done = false;
+
+        Relay(Flow.Subscriber<? super ByteBuffer> downstream) {
+            this.downstream = downstream;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                done = true;
+                WebHdfsWriteSubscriber.this.cancel();
+                downstream.onError(new IllegalArgumentException("Non-positive request " + n));
+                return;
+            }
+            demand.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            done = true;
+            WebHdfsWriteSubscriber.this.cancel();
+        }
+
+        void drain() {
+            if (pending.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            while (true) {
+                ByteBuffer head;
+                while (!done && (head = received.peek()) != null) {
+                    if (head == END) {
+                        done = true;
+                        if (error != null) {
+                            downstream.onError(error);
+                        } else {
+                            downstream.onComplete();
+                        }
+                        break;
+                    }
+                    if (demand.get() == 0) {
+                        break;
+                    }
+                    received.poll();
+                    demand.decrementAndGet();
+                    downstream.onNext(head);
+                    subscription.request(1);
+                }
+                missed = pending.addAndGet(-missed);
+                if (missed == 0) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Blocking view of the received buffers for transports sending from a stream.
+     */
+    class BufferInputStream extends InputStream {
+        ByteBuffer current;
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            while (current == null || !current.hasRemaining()) {
+                if (current == END) {
+                    return -1;
+                }
+                if (current != null) {
+                    subscription.request(1);
+                }
+                try {
+                    current = received.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while uploading " + path);
+                }
+                if (current == END && error != null) {
+                    throw new IOException("Publisher for " + path + " failed", error);
+                }
+            }
+            int n = Math.min(len, current.remaining());
+            current.get(b, off, n);
+            return n;
+        }
+    }
+}
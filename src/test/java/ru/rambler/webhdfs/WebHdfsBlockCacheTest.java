@@ -0,0 +1,64 @@
+package ru.rambler.webhdfs;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.commons.io.IOUtils;
+import org.testng.annotations.*;
+
+
+public class WebHdfsBlockCacheTest extends WebHdfsIntegrationTest {
+    private Path cacheDir;
+    private WebHdfsBlockCache cache;
+
+    @BeforeMethod
+    void makeCache() throws IOException {
+        this.cacheDir = Files.createTempDirectory("webhdfs-cache");
+        this.cache = new WebHdfsBlockCache(cacheDir, 4, 2);
+        this.client.setBlockCache(cache);
+    }
+
+    @AfterMethod
+    void dropCache() throws IOException {
+        this.client.setBlockCache(null);
+        this.cache.close();
+        Files.delete(cacheDir);
+    }
+
+    String read(WebHdfsResource file, long offset, long length) throws IOException {
+        return IOUtils.toString(file.open(offset, length, null), Charset.defaultCharset());
+    }
+
+    @Test
+    void testRepeatedReadsHit() throws IOException {
+        WebHdfsResource file = testResource.child("file");
+        file.create("Hello World");
+
+        assertEquals(read(file, 0L, 5L), "Hello");
+        assertEquals(cache.getMisses(), 2L);
+        assertEquals(read(file, 1L, 6L), "ello W");
+        assertEquals(cache.getMisses(), 2L);
+        assertTrue(cache.getHits() > 0L);
+
+        assertEquals(read(file, 6L, 100L), "World");
+        assertTrue(cache.getEvictions() > 0L);
+        assertEquals(cache.getCachedBlocks(), 2);
+    }
+
+    @Test
+    void testRewriteInvalidates() throws IOException {
+        WebHdfsResource file = testResource.child("file");
+        file.create("Hello");
+        assertEquals(read(file, 0L, 5L), "Hello");
+
+        file.create(new ByteArrayInputStream("Howdy".getBytes()), true, null, null, null, null);
+        assertEquals(read(file, 0L, 5L), "Howdy");
+
+        file.append("!");
+        assertEquals(read(file, 0L, 6L), "Howdy!");
+    }
+}
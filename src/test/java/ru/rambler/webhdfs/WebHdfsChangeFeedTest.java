@@ -0,0 +1,65 @@
+package ru.rambler.webhdfs;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.testng.Assert;
+import org.testng.SkipException;
+import org.testng.annotations.*;
+
+
+public class WebHdfsChangeFeedTest extends Assert {
+    private WebHdfsClient client;
+    private WebHdfsResource snapshotRoot;
+    private WebHdfsResource testResource;
+
+    @BeforeClass
+    void init() {
+        String root = System.getProperty("webhdfs.test.snapshot.root");
+        if (root == null) {
+            throw new SkipException("Specify a snapshottable \"webhdfs.test.snapshot.root\" to run snapshot tests");
+        }
+        this.client = WebHdfsClientTest.makeClient();
+        this.snapshotRoot = this.client.resource(root);
+    }
+
+    @BeforeMethod
+    void makeTestDir() {
+        this.testResource = this.snapshotRoot.child(UUID.randomUUID().toString());
+        this.testResource.mkdir(true);
+    }
+
+    @AfterMethod
+    void dropTestDir() {
+        this.testResource.remove(true);
+    }
+
+    @Test
+    void testFeed() {
+        WebHdfsChangeFeed feed = new WebHdfsChangeFeed(snapshotRoot, "feed-" + UUID.randomUUID());
+        feed.start();
+        testResource.child("file").create("Hello");
+        testResource.child("old").create("Hello");
+
+        List<WebHdfsSnapshotDiff.Entry> changes = new ArrayList<WebHdfsSnapshotDiff.Entry>();
+        feed.poll(changes::add);
+        assertTrue(changes.stream().anyMatch(
+            e -> e.getType() == WebHdfsSnapshotDiff.Type.CREATE
+                && e.getSourcePath().equals(testResource.child("file").getPath())
+        ));
+
+        changes.clear();
+        testResource.child("old").rename(testResource.child("new").getPath());
+        feed.poll(changes::add);
+        assertTrue(changes.stream().anyMatch(
+            e -> e.getType() == WebHdfsSnapshotDiff.Type.RENAME
+                && e.getTargetPath().equals(testResource.child("new").getPath())
+        ));
+
+        changes.clear();
+        assertEquals(feed.poll(changes::add), 0L);
+        snapshotRoot.deleteSnapshot(feed.getLastSnapshot());
+    }
+}
@@ -7,13 +7,21 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
 import org.apache.http.*;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicNameValuePair;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.testng.Assert;
@@ -135,7 +143,7 @@ public class WebHdfsClientTest extends Assert {
     void testNotFoundActiveHost() {
         WebHdfsClient stubbed = new WebHdfsClient(getTestsURIs(), "", 0, 0, httpClientMock) {
             @Override
-            protected HttpResponse request(HttpUriRequest request) {
+            protected WebHdfsTransport.Response request(WebHdfsTransport.Request request) {
                 throw new NetworkError(new RuntimeException());
             }
         };
@@ -147,7 +155,7 @@ public class WebHdfsClientTest extends Assert {
         WebHdfsClient stubbed = new WebHdfsClient(getTestsURIs(), "", 0, 0, httpClientMock) {
             @Override
             protected URI buildURI(
-                URI host, String pathStr, String operation, List<NameValuePair> params
+                String hostPrefix, String encodedPath, String operation, WebHdfsQuery query
             ) throws URISyntaxException {
                 throw new URISyntaxException("", "");
             }
@@ -155,6 +163,105 @@ public class WebHdfsClientTest extends Assert {
         stubbed.resource(getTestRoot()).isDir();
     }
 
+    @Test
+    void testBuildURI() throws URISyntaxException {
+        WebHdfsClient client = new WebHdfsClient(
+            new URI[] { new URI("http://nn.local:50070/") }, "hdfs user", 0, 0, httpClientMock
+        );
+        WebHdfsQuery query = WebHdfsQuery.create().add("destination", "/tmp/a b&c").add("length", 10L)
+            .add("overwrite", true).add("permission", (String) null);
+        URI uri = client.buildURI(
+            client.hostPrefixes[0], WebHdfsQuery.encodePath(Paths.get("/data/dt=1/part 0 \u00e9")), "RENAME", query
+        );
+        assertEquals(
+            uri.toString(),
+            "http://nn.local:50070/webhdfs/v1/data/dt=1/part%200%20%C3%A9?op=RENAME&user.name=hdfs+user"
+                + "&destination=%2Ftmp%2Fa+b%26c&length=10&overwrite=true"
+        );
+        assertEquals(uri.getPath(), "/webhdfs/v1/data/dt=1/part 0 \u00e9");
+    }
+
+    static String randomString(Random random, String alphabet) {
+        StringBuilder value = new StringBuilder();
+        for (int i = random.nextInt(8); i > 0; i--) {
+            value.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return value.toString();
+    }
+
+    @Test
+    void testBuildURIMatchesURIBuilder() throws URISyntaxException {
+        // Splitting the last character leaves unpaired surrogates too
+        String alphabet = "aZ09 -_.~!*'();:@&=+$,?#[]%\"<>\\^`{|}\u00e9\u4e2d\ud83d\ude00";
+        List<String> values = new ArrayList<String>(Arrays.asList(
+            "", "plain", "with space", "100%", "%20", "a+b", "k;v", "x=y", "&op=DELETE", "\u043f\u0443\u0442\u044c"
+        ));
+        Random random = new Random(1);
+        for (int i = 0; i < 2000; i++) {
+            values.add(randomString(random, alphabet));
+        }
+
+        for (int i = 0; i < values.size(); i++) {
+            String value = values.get(i);
+            String user = i % 7 == 0 ? null : values.get(values.size() - 1 - i);
+            Path path;
+            try {
+                path = Paths.get("/data", value.replace('/', '_') + "x", "part");
+            } catch (InvalidPathException e) {
+                continue;
+            }
+            URI host = new URI(i % 2 == 0 ? "http://nn1:50070" : "https://u:p@nn-2.local:9870/");
+            WebHdfsClient client = new WebHdfsClient(new URI[] { host }, user, 0, 0, httpClientMock);
+            WebHdfsQuery query = WebHdfsQuery.create().add("destination", value).add("length", (long) i)
+                .add("overwrite", true).add("replication", (short) 3);
+
+            URI expected = new URIBuilder(host)
+                .setPath(WebHdfsClient.API_PATH + path.toAbsolutePath().toString().replaceAll("^/", ""))
+                .addParameter("op", "RENAME").addParameter("user.name", user)
+                .addParameters(Arrays.asList(
+                    new BasicNameValuePair("destination", value), new BasicNameValuePair("length", "" + i),
+                    new BasicNameValuePair("overwrite", "true"), new BasicNameValuePair("replication", "3")
+                )).build();
+            URI uri = client.buildURI(client.hostPrefixes[0], WebHdfsQuery.encodePath(path), "RENAME", query);
+            assertEquals(uri.toString(), expected.toString(), value);
+        }
+    }
+
+    @Test
+    void testHostWithPathRejected() throws URISyntaxException {
+        for (String host : new String[] { "http://nn:50070/webhdfs", "http://nn:50070?user.name=x", "nn:50070" }) {
+            try {
+                new WebHdfsClient(new URI[] { new URI(host) }, "", 0, 0, httpClientMock);
+                fail(host);
+            } catch (IllegalArgumentException expected) {
+                // Requests could not honour it
+            }
+        }
+    }
+
+    @Test
+    void testOverriddenHosts() throws URISyntaxException {
+        URI[] hosts = new URI[] { new URI("http://nn2.local:50070") };
+        List<URI> requested = new ArrayList<URI>();
+        WebHdfsClient client = new WebHdfsClient(
+            new URI[] { new URI("http://nn1.local:50070") }, "", 0, 0, httpClientMock
+        ) {
+            @Override
+            public URI[] getHosts() {
+                return hosts;
+            }
+
+            @Override
+            protected WebHdfsTransport.Response request(WebHdfsTransport.Request request) {
+                requested.add(request.getUri());
+                return new WebHdfsTransport.Response(200, InputStream.nullInputStream());
+            }
+        };
+        client.requestAny("GET", Paths.get("/a"), "GETFILESTATUS", null).close();
+        assertEquals(requested.size(), 1);
+        assertEquals(requested.get(0).getHost(), "nn2.local");
+    }
+
     @Test(expectedExceptions = WebHdfsClient.NetworkError.class)
     void testReThrowNetworkErrorOnLoadJsonResponse() {
         when(statusLineMock.getStatusCode()).thenReturn(200);
@@ -171,6 +278,6 @@ public class WebHdfsClientTest extends Assert {
     void testReThrowNetworkErrorOnRequest() throws IOException {
         when(statusLineMock.getStatusCode()).thenReturn(200);
         when(httpClientMock.execute(any(HttpUriRequest.class))).thenThrow(new IOException());
-        this.mockedClient.request(mock(HttpUriRequest.class));
+        this.mockedClient.request(new WebHdfsTransport.Request("GET", getTestsURIs()[0]));
     }
 }
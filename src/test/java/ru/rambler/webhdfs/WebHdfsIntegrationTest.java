@@ -0,0 +1,46 @@
+package ru.rambler.webhdfs;
+
+
+import java.nio.file.Paths;
+import java.util.UUID;
+
+import org.testng.Assert;
+import org.testng.annotations.*;
+
+
+/**
+ * Fixture of tests against the cluster given by the webhdfs.* properties: every test method gets a fresh directory
+ * under the tests root in testResource, not created yet and removed afterwards. Subclasses add their own setup in
+ * separately named configuration methods, which TestNG runs after those of this class and cleans up before them.
+ */
+public abstract class WebHdfsIntegrationTest extends Assert {
+    protected WebHdfsClient client;
+    protected WebHdfsResource testsRoot;
+    protected WebHdfsResource testResource;
+
+    protected WebHdfsClient makeClient() {
+        return WebHdfsClientTest.makeClient();
+    }
+
+    @BeforeClass
+    void init() {
+        this.client = makeClient();
+        this.testsRoot = this.client.resource(Paths.get(WebHdfsClientTest.getTestRoot()));
+        this.testsRoot.mkdir(true);
+    }
+
+    @AfterClass
+    void teardown() {
+        this.testsRoot.remove(true);
+    }
+
+    @BeforeMethod
+    void makeTestDir() {
+        this.testResource = this.testsRoot.child(UUID.randomUUID().toString());
+    }
+
+    @AfterMethod
+    void dropTestDir() {
+        this.testResource.remove(true);
+    }
+}
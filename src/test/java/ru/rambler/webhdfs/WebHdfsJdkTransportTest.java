@@ -0,0 +1,77 @@
+package ru.rambler.webhdfs;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+import org.testng.annotations.*;
+
+
+public class WebHdfsJdkTransportTest extends WebHdfsIntegrationTest {
+    @Override
+    protected WebHdfsClient makeClient() {
+        return WebHdfsClient.initiate(
+            WebHdfsClientTest.getTestsURIs(), WebHdfsClientTest.getTestUser(), WebHdfsJdkTransport.create()
+        );
+    }
+
+    @Test
+    void testCreateAppendOpen() throws IOException {
+        WebHdfsResource file = testResource.child("file");
+        file.create("first");
+        file.append("\nsecond");
+        try (InputStream in = file.open()) {
+            assertEquals(new String(in.readAllBytes(), StandardCharsets.UTF_8), "first\nsecond");
+        }
+        assertTrue(file.isFile());
+        assertEquals(file.getLength(), 12);
+    }
+
+    @Test
+    void testStreamedCreate() throws IOException {
+        byte[] data = new byte[3 << 20];
+        new Random(7).nextBytes(data);
+        WebHdfsResource file = testResource.child("streamed");
+        file.create(new ByteArrayInputStream(data));
+        try (InputStream in = file.open(1L << 20, 16L, null)) {
+            byte[] expected = new byte[16];
+            System.arraycopy(data, 1 << 20, expected, 0, 16);
+            assertEquals(in.readAllBytes(), expected);
+        }
+    }
+
+    @Test
+    void testNamespace() {
+        assertTrue(testResource.child("a/b").mkdir(true));
+        assertTrue(testResource.child("a/b").rename(testResource.child("c").getPath()));
+        assertTrue(testResource.child("c").isDir());
+        assertFalse(testResource.child("a/b").exists());
+        assertTrue(testResource.child("c").remove(true));
+    }
+
+    @Test
+    void testClientTimeout() {
+        WebHdfsJdkTransport transport = WebHdfsJdkTransport.create();
+        List<Duration> timeouts = new ArrayList<Duration>();
+        WebHdfsClient client = new WebHdfsClient(
+            WebHdfsClientTest.getTestsURIs(), WebHdfsClientTest.getTestUser(), 5, 1, transport
+        ) {
+            @Override
+            protected WebHdfsTransport.Response request(WebHdfsTransport.Request request) {
+                timeouts.add(request.getTimeout());
+                return super.request(request);
+            }
+        };
+        assertTrue(client.resource(testResource.getPath()).mkdir(true));
+        assertEquals(timeouts, List.of(Duration.ofSeconds(5)));
+        assertEquals(transport.client(Duration.ofSeconds(5)).connectTimeout(), Optional.of(Duration.ofSeconds(5)));
+        assertEquals(transport.getClient().connectTimeout(), Optional.of(Duration.ofSeconds(60)));
+    }
+}
@@ -0,0 +1,65 @@
+package ru.rambler.webhdfs;
+
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+
+import org.testng.annotations.*;
+
+
+public class WebHdfsLineProcessorTest extends WebHdfsIntegrationTest {
+    static String decode(ByteBuffer record) {
+        byte[] bytes = new byte[record.remaining()];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @DataProvider
+    Object[][] splitSizes() {
+        return new Object[][] { { 1L }, { 7L }, { 64L }, { 1L << 20 } };
+    }
+
+    @Test(dataProvider = "splitSizes")
+    void testSplitsReadEveryLineOnce(long splitSize) {
+        List<String> lines = new ArrayList<String>();
+        StringBuilder data = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            String line = "line-" + i + (i % 7 == 0 ? "" : "-" + UUID.randomUUID());
+            lines.add(line);
+            data.append(line).append(i % 3 == 0 ? "\r\n" : i % 3 == 1 ? "\r" : "\n");
+        }
+        WebHdfsResource file = testResource.child("log");
+        file.create(data.toString());
+
+        Map<Long, String> records = new ConcurrentSkipListMap<Long, String>();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            WebHdfsLineProcessor processor = new WebHdfsLineProcessor(pool, 16);
+            processor.processSplits(WebHdfsSplit.of(file, splitSize), (split, offset, record) -> {
+                assertNull(records.put(offset, decode(record)));
+            });
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(new ArrayList<String>(records.values()), lines);
+    }
+
+    @Test
+    void testGlob() {
+        testResource.child("a").child("part-0.log").create("one\ntwo\n");
+        testResource.child("a").child("part-1.log").create("three");
+        testResource.child("a").child("skipped.txt").create("four\n");
+
+        Map<String, Long> records = new ConcurrentSkipListMap<String, Long>();
+        new WebHdfsLineProcessor().process(testResource, "*/*.log", (split, offset, record) -> {
+            records.put(decode(record), offset);
+        });
+        assertEquals(records.keySet().toString(), "[one, three, two]");
+    }
+}
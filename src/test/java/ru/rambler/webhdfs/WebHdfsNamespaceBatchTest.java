@@ -0,0 +1,63 @@
+package ru.rambler.webhdfs;
+
+
+import org.testng.annotations.*;
+
+
+public class WebHdfsNamespaceBatchTest extends WebHdfsIntegrationTest {
+    @BeforeMethod
+    void createTestDir() {
+        this.testResource.mkdir(true);
+    }
+
+    @Test
+    void testExecute() {
+        String root = testResource.getPath().toString();
+        WebHdfsNamespaceBatch.Report report = new WebHdfsNamespaceBatch(client, 4)
+            .mkdir(root + "/a", "755")
+            .mkdir(root + "/a/b", "755")
+            .mkdir(root + "/c", "755")
+            .setPermission(root + "/c", "700")
+            .rename(root + "/a/b", root + "/c/b")
+            .remove(root + "/a", false)
+            .execute();
+
+        assertTrue(report.isSucceeded(), report.getFailed().toString());
+        assertEquals(report.count(WebHdfsNamespaceBatch.Status.MERGED), 1);
+        assertEquals(report.getResults().get(0).getStatus(), WebHdfsNamespaceBatch.Status.MERGED);
+        assertFalse(testResource.child("a").exists());
+        assertTrue(testResource.child("c").child("b").exists());
+        assertEquals(client.resource(root + "/c").getPermission(), "700");
+    }
+
+    @Test
+    void testSkipAfterFailure() {
+        String root = testResource.getPath().toString();
+        WebHdfsNamespaceBatch.Report report = new WebHdfsNamespaceBatch(client)
+            .setPermission(root + "/missing", "700")
+            .mkdir(root + "/missing/child", "755")
+            .mkdir(root + "/other", "755")
+            .execute();
+
+        assertEquals(report.getResults().get(0).getStatus(), WebHdfsNamespaceBatch.Status.FAILED);
+        assertTrue(report.getResults().get(0).getError() instanceof WebHdfsClient.NotFound);
+        assertEquals(report.getResults().get(1).getStatus(), WebHdfsNamespaceBatch.Status.SKIPPED);
+        assertEquals(report.getResults().get(2).getStatus(), WebHdfsNamespaceBatch.Status.SUCCEEDED);
+        assertFalse(testResource.child("missing").exists());
+        assertTrue(testResource.child("other").exists());
+    }
+
+    @Test
+    void testSkipAfterFalse() {
+        String root = testResource.getPath().toString();
+        WebHdfsNamespaceBatch.Report report = new WebHdfsNamespaceBatch(client)
+            .rename(root + "/missing", root + "/moved")
+            .mkdir(root + "/moved/child", "755")
+            .execute();
+
+        assertEquals(report.getResults().get(0).getStatus(), WebHdfsNamespaceBatch.Status.FAILED);
+        assertEquals(report.getResults().get(0).getValue(), Boolean.FALSE);
+        assertEquals(report.getResults().get(1).getStatus(), WebHdfsNamespaceBatch.Status.SKIPPED);
+        assertFalse(testResource.child("moved").exists());
+    }
+}
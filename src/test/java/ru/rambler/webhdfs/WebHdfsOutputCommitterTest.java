@@ -0,0 +1,115 @@
+package ru.rambler.webhdfs;
+
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
+
+import org.apache.commons.io.IOUtils;
+import org.testng.annotations.*;
+
+
+public class WebHdfsOutputCommitterTest extends WebHdfsIntegrationTest {
+    String read(WebHdfsResource resource) throws IOException {
+        return IOUtils.toString(resource.open(), Charset.defaultCharset());
+    }
+
+    @Test
+    void testCommitJob() throws IOException {
+        WebHdfsOutputCommitter committer = new WebHdfsOutputCommitter(testResource, "job1", 4);
+        committer.setupJob();
+
+        WebHdfsOutputCommitter.TaskAttempt failed = committer.task("t0", 0);
+        failed.setup();
+        failed.file("part-0").create("broken");
+        failed.abort();
+
+        WebHdfsOutputCommitter.TaskAttempt t0 = committer.task("t0", 1);
+        t0.setup();
+        t0.file("part-0").create("zero");
+        t0.file("dt=1/part-0").create("zero-1");
+        t0.commit();
+
+        WebHdfsOutputCommitter.TaskAttempt t1 = committer.task("t1", 0);
+        t1.setup();
+        t1.file("part-1").create("one");
+        t1.file("dt=1/part-1").create("one-1");
+        t1.file("dt=2/part-1").create("one-2");
+        t1.commit();
+
+        assertFalse(testResource.child("part-0").exists());
+        committer.commitJob();
+
+        assertEquals(read(testResource.child("part-0")), "zero");
+        assertEquals(read(testResource.child("part-1")), "one");
+        assertEquals(read(testResource.child("dt=1/part-0")), "zero-1");
+        assertEquals(read(testResource.child("dt=1/part-1")), "one-1");
+        assertEquals(read(testResource.child("dt=2/part-1")), "one-2");
+        assertTrue(testResource.child(WebHdfsOutputCommitter.SUCCESS).exists());
+        assertFalse(testResource.child(WebHdfsOutputCommitter.TEMPORARY).exists());
+    }
+
+    @Test
+    void testCommitTaskTwice() {
+        WebHdfsOutputCommitter committer = new WebHdfsOutputCommitter(testResource, "job1");
+        committer.setupJob();
+        for (int attempt = 0; attempt < 2; attempt++) {
+            WebHdfsOutputCommitter.TaskAttempt task = committer.task("t0", attempt);
+            task.setup();
+            task.file("part-0").create("data");
+        }
+
+        committer.task("t0", 0).commit();
+        assertThrows(WebHdfsClient.AlreadyExists.class, () -> committer.task("t0", 1).commit());
+    }
+
+    @Test
+    void testConcurrentTaskCommit() {
+        WebHdfsOutputCommitter committer = new WebHdfsOutputCommitter(testResource, "job1");
+        committer.setupJob();
+        List<CompletableFuture<Void>> commits = new ArrayList<CompletableFuture<Void>>();
+        for (int attempt = 0; attempt < 2; attempt++) {
+            WebHdfsOutputCommitter.TaskAttempt task = committer.task("t0", attempt);
+            task.setup();
+            task.file("part-" + attempt).create("data");
+            commits.add(CompletableFuture.runAsync(task::commit));
+        }
+
+        int failed = 0;
+        for (CompletableFuture<Void> commit : commits) {
+            try {
+                commit.join();
+            } catch (CompletionException e) {
+                assertTrue(e.getCause() instanceof WebHdfsClient.AlreadyExists, e.toString());
+                failed++;
+            }
+        }
+        assertEquals(failed, 1);
+
+        // The losing attempt must not end up nested inside the committed task
+        List<String> names = committer.getJobDirectory().child("t0").stream(false)
+            .map(WebHdfsResource::getBaseName).collect(Collectors.toList());
+        assertEquals(names.size(), 1, names.toString());
+        assertTrue(names.get(0).startsWith("part-"), names.toString());
+    }
+
+    @Test
+    void testAbortJob() {
+        WebHdfsOutputCommitter committer = new WebHdfsOutputCommitter(testResource, "job1");
+        committer.setupJob();
+        WebHdfsOutputCommitter.TaskAttempt task = committer.task("t0", 0);
+        task.setup();
+        task.file("part-0").create("data");
+        task.commit();
+        committer.task("t1", 0).setup();
+
+        committer.abortJob();
+        assertFalse(testResource.child(WebHdfsOutputCommitter.TEMPORARY).exists());
+        assertFalse(testResource.child(WebHdfsOutputCommitter.SUCCESS).exists());
+        assertFalse(testResource.child("part-0").exists());
+    }
+}
@@ -2,16 +2,37 @@ package ru.rambler.webhdfs;
 
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.input.BoundedInputStream;
@@ -102,6 +123,28 @@ public class WebHdfsResourceTest extends Assert {
         assertTrue(dirExists);
     }
 
+    @Test
+    void testStream() {
+        testResource.mkdir(true);
+        for (int i = 0; i < 4; i++) {
+            WebHdfsResource dir = testResource.child("dir" + i);
+            dir.child("sub").mkdir(true);
+            dir.child("file").create("Hello");
+            dir.child("sub").child("file").create("Hello");
+        }
+
+        Set<String> recursive = testResource.stream(true).parallel()
+            .map(res -> testResource.getPath().relativize(res.getPath()).toString()).collect(Collectors.toSet());
+        assertEquals(recursive.size(), 16);
+        assertTrue(recursive.contains("dir3/sub/file"));
+        assertEquals(testResource.stream(true).filter(WebHdfsResource::isFile).count(), 8L);
+
+        Set<String> flat = testResource.stream(false).parallel().map(WebHdfsResource::getBaseName)
+            .collect(Collectors.toSet());
+        assertEquals(flat.size(), 4);
+        assertTrue(flat.contains("dir0"));
+    }
+
     InputStream makeBoundedRandomStream(long seed, long size) {
         return new BoundedInputStream(new RandomInputStream(seed), size);
     }
@@ -154,6 +197,169 @@ public class WebHdfsResourceTest extends Assert {
         }
     }
 
+    @Test(dataProvider = "uploadConfs", retryAnalyzer = NetworkErrorRetryAnalyzerCount.class)
+    void testUploadDownloadChannel(long seed, long size) throws IOException {
+        Path local = Files.createTempFile("webhdfs", ".bin");
+        Path downloaded = Files.createTempFile("webhdfs", ".bin");
+        try {
+            Files.copy(makeBoundedRandomStream(seed, size), local, StandardCopyOption.REPLACE_EXISTING);
+            String md5 = getMD5Checksum(Files.newInputStream(local));
+
+            WebHdfsResource fileResource = this.testResource.child("uploaded");
+            fileResource.upload(local, true, null, null, null, 1L << 20);
+            assertEquals(fileResource.getLength(), size);
+
+            try (FileChannel channel = FileChannel.open(downloaded, StandardOpenOption.WRITE)) {
+                assertEquals(fileResource.downloadTo(channel, null, null, 1L << 20), size);
+            }
+            assertEquals(getMD5Checksum(Files.newInputStream(downloaded)), md5);
+        } finally {
+            Files.delete(local);
+            Files.delete(downloaded);
+        }
+    }
+
+    @Test(dataProvider = "uploadConfs", retryAnalyzer = NetworkErrorRetryAnalyzerCount.class)
+    void testCompressed(long seed, long size) throws IOException {
+        String md5 = getMD5Checksum(makeBoundedRandomStream(seed, size));
+
+        for (String name : new String[] { "uploaded.gz", "uploaded.deflate", "uploaded" }) {
+            WebHdfsResource fileResource = this.testResource.child(name);
+            try (OutputStream out = fileResource.createCompressed(true)) {
+                IOUtils.copy(makeBoundedRandomStream(seed, size), out);
+            }
+            assertEquals(getMD5Checksum(fileResource.openDecompressed()), md5, name);
+        }
+        assertEquals(this.testResource.child("uploaded").getLength(), size);
+        assertEquals(client.getBufferPool().getAvailable(), client.getBufferPool().getCapacity());
+    }
+
+    @Test(timeOut = 60000)
+    void testCompressedBeyondPool() throws IOException {
+        WebHdfsClient small = WebHdfsClientTest.makeClient();
+        small.setBufferPool(new WebHdfsBufferPool(4096, 2 * WebHdfsCompressedOutputStream.DEFAULT_CHUNKS));
+        List<OutputStream> streams = new ArrayList<OutputStream>();
+        for (int i = 0; i < 3; i++) {
+            streams.add(small.resource(testResource.getPath()).child(i + ".gz").createCompressed(true));
+        }
+        for (int i = 0; i < streams.size(); i++) {
+            try (OutputStream out = streams.get(i)) {
+                IOUtils.copy(makeBoundedRandomStream(i, 100000), out);
+            }
+        }
+        for (int i = 0; i < streams.size(); i++) {
+            String md5 = getMD5Checksum(makeBoundedRandomStream(i, 100000));
+            assertEquals(getMD5Checksum(testResource.child(i + ".gz").openDecompressed()), md5);
+        }
+        assertEquals(small.getBufferPool().getAvailable(), small.getBufferPool().getCapacity());
+    }
+
+    @Test(timeOut = 60000)
+    void testCompressedQueueingExecutor() {
+        WebHdfsClient queueing = WebHdfsClientTest.makeClient();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        queueing.setExecutor(executor);
+        try {
+            WebHdfsResource file = queueing.resource(testResource.getPath()).child("queued.gz");
+            assertThrows(RejectedExecutionException.class, () -> file.createCompressed(true));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(timeOut = 60000)
+    void testPublishers() throws Exception {
+        WebHdfsResource file = testResource.child("published");
+        byte[] data = new byte[300000];
+        new Random(7).nextBytes(data);
+
+        SubmissionPublisher<ByteBuffer> publisher = new SubmissionPublisher<ByteBuffer>();
+        CompletableFuture<Void> written = file.write(publisher);
+        for (int offset = 0; offset < data.length; offset += 10000) {
+            publisher.submit(ByteBuffer.wrap(data, offset, 10000));
+        }
+        publisher.close();
+        written.get();
+        assertEquals(file.getLength(), (long) data.length);
+
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        CompletableFuture<Void> done = new CompletableFuture<Void>();
+        file.read(100L, null).subscribe(new Flow.Subscriber<ByteBuffer>() {
+            Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(ByteBuffer item) {
+                read.write(item.array(), item.arrayOffset() + item.position(), item.remaining());
+                subscription.request(1);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                done.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                done.complete(null);
+            }
+        });
+        done.get();
+        assertEquals(read.toByteArray(), Arrays.copyOfRange(data, 100, data.length));
+    }
+
+    @Test(timeOut = 60000)
+    void testFollow() throws IOException, InterruptedException {
+        WebHdfsResource file = testResource.child("file");
+        file.create("Hello");
+
+        try (WebHdfsFollowInputStream follower = file.follow(0L, null).pollDelay(10L, 100L)) {
+            byte[] buffer = new byte[11];
+            IOUtils.readFully(follower, buffer, 0, 5);
+            file.append(" World");
+            IOUtils.readFully(follower, buffer, 5, 6);
+            assertEquals(new String(buffer), "Hello World");
+            assertEquals(follower.getPosition(), 11L);
+
+            file.create(new ByteArrayInputStream("Bye".getBytes()), true, null, null, null, null);
+            IOUtils.readFully(follower, buffer, 0, 3);
+            assertEquals(new String(buffer, 0, 3), "Bye");
+        }
+    }
+
+    @Test
+    void testFollowReplacedBeforeRead() {
+        WebHdfsResource file = testResource.child("file");
+        file.create("Hello");
+
+        WebHdfsFollowInputStream follower = file.follow(5L, null).pollDelay(10L, 100L).detectRotation(false);
+        file.create(new ByteArrayInputStream("Hello World".getBytes()), true, null, null, null, null);
+        assertThrows(IOException.class, follower::read);
+    }
+
+    @Test
+    void testFollowClosedWhileReading() throws Exception {
+        WebHdfsResource file = testResource.child("file");
+        file.create("Hello");
+
+        WebHdfsFollowInputStream follower = file.follow(5L, null).pollDelay(10L, 100L);
+        CompletableFuture<Integer> read = CompletableFuture.supplyAsync(() -> {
+            try {
+                return follower.read();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        Thread.sleep(200);
+        follower.close();
+        assertEquals(read.get(10, TimeUnit.SECONDS).intValue(), -1);
+    }
+
     @Test
     void testGetSetAttributes() {
         WebHdfsResource file = testResource.child("file");
@@ -0,0 +1,88 @@
+package ru.rambler.webhdfs;
+
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.*;
+
+
+public class WebHdfsRetentionTest extends WebHdfsIntegrationTest {
+    @BeforeMethod
+    void makeFiles() {
+        testResource.child("events/dt=1/part-0").create("old");
+        testResource.child("events/dt=1/part-1").create("old");
+        testResource.child("events/dt=2/part-0").create("new");
+        testResource.child("events/_SUCCESS").create("");
+        testResource.child("tmp/scratch").create("temp");
+    }
+
+    @Test
+    void testDryRun() {
+        WebHdfsRetention.Policy policy = WebHdfsRetention.Policy.matching("events/dt=1")
+            .or(WebHdfsRetention.Policy.matching("tmp/*").and(WebHdfsRetention.Policy.filesOnly()));
+        WebHdfsRetention.Report report = new WebHdfsRetention(
+            policy, WebHdfsRetention.Options.create().dryRun(true)
+        ).clean(testResource);
+
+        assertTrue(report.isDryRun());
+        assertEquals(report.getDirectories(), Collections.singletonList("events/dt=1"));
+        assertEquals(report.getFiles(), Collections.singletonList("tmp/scratch"));
+        assertEquals(report.getFileBytes(), 4);
+        assertTrue(testResource.child("events/dt=1").exists());
+        assertTrue(testResource.child("tmp/scratch").exists());
+    }
+
+    @Test
+    void testClean() {
+        WebHdfsRetention.Policy policy = WebHdfsRetention.Policy.matching("**/dt=*")
+            .and((path, resource, now) -> !path.endsWith("dt=2"));
+        WebHdfsRetention.Report report = new WebHdfsRetention(
+            policy, WebHdfsRetention.Options.create().parallelism(2).deletesPerSecond(10)
+        ).clean(testResource);
+
+        assertTrue(report.getFailures().isEmpty(), report.getFailures().toString());
+        assertEquals(report.getDirectories(), Collections.singletonList("events/dt=1"));
+        assertEquals(report.getFiles(), Collections.emptyList());
+        assertFalse(testResource.child("events/dt=1").exists());
+        for (String kept : Arrays.asList("events/dt=2/part-0", "events/_SUCCESS", "tmp/scratch")) {
+            assertTrue(testResource.child(kept).exists(), kept);
+        }
+    }
+
+    @Test
+    void testOlderThan() {
+        // An old partition with a fresh file two levels down must survive as a whole
+        testResource.child("events/dt=1/hour=0/part-0").create("fresh");
+        long old = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(10);
+        for (String path : Arrays.asList(
+            "events/dt=1/part-0", "events/dt=1/part-1", "events/dt=1/hour=0", "events/dt=1", "events/dt=2/part-0",
+            "events/dt=2", "events/_SUCCESS", "events", "tmp/scratch", "tmp"
+        )) {
+            testResource.child(path).setTimes(old, null);
+        }
+
+        WebHdfsRetention retention = new WebHdfsRetention(WebHdfsRetention.Policy.olderThan(1, TimeUnit.DAYS));
+        WebHdfsRetention.Report report = retention.clean(testResource);
+
+        assertTrue(report.getFailures().isEmpty(), report.getFailures().toString());
+        assertEquals(report.getDirectories(), Arrays.asList("events/dt=2", "tmp"));
+        assertEquals(report.getFiles(), Arrays.asList("events/_SUCCESS", "events/dt=1/part-0", "events/dt=1/part-1"));
+        assertEquals(report.getFileBytes(), 6);
+        assertTrue(testResource.child("events/dt=1/hour=0/part-0").exists());
+        assertFalse(testResource.child("events/dt=2").exists());
+        assertFalse(testResource.child("tmp").exists());
+    }
+
+    @Test
+    void testMaxDepth() {
+        WebHdfsRetention.Report report = new WebHdfsRetention(
+            WebHdfsRetention.Policy.filesOnly(), WebHdfsRetention.Options.create().maxDepth(1).dryRun(true)
+        ).clean(testResource);
+
+        assertEquals(report.getListed(), 1);
+        assertTrue(report.getFiles().isEmpty());
+        assertEquals(report.getKept(), 2);
+    }
+}
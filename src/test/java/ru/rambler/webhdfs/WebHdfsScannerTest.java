@@ -0,0 +1,89 @@
+package ru.rambler.webhdfs;
+
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import org.testng.annotations.*;
+
+
+public class WebHdfsScannerTest extends WebHdfsIntegrationTest {
+    private Path indexDir;
+
+    @BeforeMethod
+    void makeDirs() throws IOException {
+        this.testResource.mkdir(true);
+        this.indexDir = Files.createTempDirectory("webhdfs-index");
+    }
+
+    @AfterMethod
+    void dropIndexDir() throws IOException {
+        try (Stream<Path> paths = Files.walk(indexDir)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    Map<String, WebHdfsScanner.ChangeType> scan(WebHdfsScanner scanner) {
+        Map<String, WebHdfsScanner.ChangeType> changes = new TreeMap<String, WebHdfsScanner.ChangeType>();
+        scanner.scan(client.resource(testResource.getPath()), (type, entry) -> changes.put(entry.getPath(), type));
+        return changes;
+    }
+
+    @Test
+    void testIncrementalScan() {
+        testResource.child("a/b").mkdir(true);
+        testResource.child("a/b/file").create("Hello");
+        testResource.child("a-b").create("Hello");
+
+        WebHdfsScanner scanner = new WebHdfsScanner(indexDir);
+        Map<String, WebHdfsScanner.ChangeType> changes = scan(scanner);
+        assertEquals(changes.size(), 5);
+        assertEquals(changes.get("a/b/file"), WebHdfsScanner.ChangeType.ADDED);
+        assertTrue(scan(scanner).isEmpty());
+
+        testResource.child("a/b/new").create("World");
+        testResource.child("a-b").remove(false);
+        changes = scan(scanner);
+        assertEquals(changes.size(), 2);
+        assertEquals(changes.get("a/b/new"), WebHdfsScanner.ChangeType.ADDED);
+        assertEquals(changes.get("a-b"), WebHdfsScanner.ChangeType.REMOVED);
+
+        WebHdfsNamespaceIndex index = scanner.index();
+        assertEquals(index.size(), 5);
+        assertEquals(index.path(0), "");
+        assertTrue(index.get(index.find("a/b")).isDir());
+        assertEquals(index.get(index.find("a/b/new")).getLength(), 5L);
+        assertEquals(index.subtreeEnd(index.find("a")), index.size());
+    }
+
+    @Test
+    void testResumeAfterFailure() {
+        for (int i = 0; i < 10; i++) {
+            testResource.child("dir" + i).child("file").create("Hello");
+        }
+
+        WebHdfsScanner scanner = new WebHdfsScanner(indexDir).checkpointInterval(1);
+        int[] seen = { 0 };
+        try {
+            scanner.scan(client.resource(testResource.getPath()), (type, entry) -> {
+                if (++seen[0] == 12) {
+                    throw new IllegalStateException("Crash");
+                }
+            });
+            fail();
+        } catch (IllegalStateException e) {
+        }
+
+        Map<String, WebHdfsScanner.ChangeType> changes = scan(scanner);
+        assertTrue(changes.size() < 21);
+        assertTrue(changes.containsKey("dir9/file"));
+        assertEquals(scanner.index().size(), 21);
+    }
+}
@@ -0,0 +1,54 @@
+package ru.rambler.webhdfs;
+
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.json.JSONException;
+import org.testng.Assert;
+import org.testng.annotations.*;
+
+
+public class WebHdfsSnapshotDiffTest extends Assert {
+    private static final String ENTRIES = "{\"sourcePath\":\"a\",\"type\":\"CREATE\"},"
+        + "{\"sourcePath\":\"b\",\"targetPath\":\"c\",\"type\":\"RENAME\"}";
+
+    private WebHdfsSnapshotDiff parse(String json) {
+        WebHdfsResource root = new WebHdfsResource(null, Paths.get("/root"));
+        return new WebHdfsSnapshotDiff(root, new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void testEntries() {
+        WebHdfsSnapshotDiff diff = parse(
+            "{\"SnapshotDiffReport\":{\"diffList\":[" + ENTRIES + "],\"fromSnapshot\":\"s1\",\"toSnapshot\":\"s2\"}}"
+        );
+        List<WebHdfsSnapshotDiff.Entry> entries = diff.stream().collect(Collectors.toList());
+
+        assertTrue(diff.isComplete());
+        assertEquals(entries.size(), 2);
+        assertEquals(entries.get(0).getType(), WebHdfsSnapshotDiff.Type.CREATE);
+        assertEquals(entries.get(0).getSourcePath(), Paths.get("/root/a"));
+        assertEquals(entries.get(1).getTargetPath(), Paths.get("/root/c"));
+    }
+
+    @Test
+    void testTruncated() {
+        WebHdfsSnapshotDiff diff = parse("{\"SnapshotDiffReport\":{\"diffList\":[" + ENTRIES);
+        assertTrue(diff.hasNext());
+        diff.next();
+        assertTrue(diff.hasNext());
+        diff.next();
+        assertThrows(JSONException.class, diff::hasNext);
+        assertFalse(diff.isComplete());
+    }
+
+    @Test
+    void testMissingDiffList() {
+        assertThrows(JSONException.class, () -> parse("{\"SnapshotDiffReport\":{\"fromSnapshot\":\"s1\"}}"));
+        assertThrows(JSONException.class, () -> parse("{\"SnapshotDiffReport\":{\"fromSnapshot\":\"s1\""));
+    }
+}
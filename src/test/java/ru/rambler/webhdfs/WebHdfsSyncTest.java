@@ -0,0 +1,94 @@
+package ru.rambler.webhdfs;
+
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.IOUtils;
+import org.testng.annotations.*;
+
+
+public class WebHdfsSyncTest extends WebHdfsIntegrationTest {
+    private Path localDir;
+
+    @BeforeMethod
+    void makeLocalDir() throws IOException {
+        this.localDir = Files.createTempDirectory("webhdfs-sync");
+        write("a.txt", "Hello");
+        write("sub/b.txt", "World");
+        Files.createDirectories(localDir.resolve("empty/nested"));
+    }
+
+    @AfterMethod
+    void dropLocalDir() throws IOException {
+        try (Stream<Path> paths = Files.walk(localDir)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    void write(String path, String data) throws IOException {
+        Path file = localDir.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.write(file, data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    String read(String path) throws IOException {
+        return IOUtils.toString(testResource.child(path).open(), Charset.defaultCharset());
+    }
+
+    @Test
+    void testIncrementalSync() throws IOException {
+        WebHdfsSync.Report report = new WebHdfsSync().sync(localDir, testResource);
+        assertEquals(report.getUploads(), Arrays.asList("a.txt", "sub/b.txt"));
+        assertEquals(report.getMkdirs(), Collections.singletonList("empty/nested"));
+        assertTrue(report.getFailures().isEmpty());
+        assertEquals(read("sub/b.txt"), "World");
+        assertTrue(testResource.child("empty/nested").isDir());
+
+        write("sub/b.txt", "World!");
+        report = new WebHdfsSync().sync(localDir, testResource);
+        assertEquals(report.getUploads(), Collections.singletonList("sub/b.txt"));
+        assertEquals(report.getUnchanged(), 1L);
+        assertEquals(read("sub/b.txt"), "World!");
+    }
+
+    @Test
+    void testDryRunAndDelete() throws IOException {
+        new WebHdfsSync().sync(localDir, testResource);
+        testResource.child("extra/file").create("stale");
+
+        WebHdfsSync.Options options = WebHdfsSync.Options.create().delete(true).dryRun(true);
+        WebHdfsSync.Report report = new WebHdfsSync(options).sync(localDir, testResource);
+        assertEquals(report.getDeletes(), Collections.singletonList("extra"));
+        assertTrue(testResource.child("extra").exists());
+
+        report = new WebHdfsSync(options.dryRun(false)).sync(localDir, testResource);
+        assertEquals(report.getDeletes(), Collections.singletonList("extra"));
+        assertFalse(client.resource(testResource.child("extra").getPath()).exists());
+    }
+
+    @Test
+    void testChecksumIgnoresTouchedFiles() throws IOException {
+        new WebHdfsSync().sync(localDir, testResource);
+        Files.setLastModifiedTime(localDir.resolve("a.txt"), FileTime.fromMillis(System.currentTimeMillis() + 60000));
+
+        WebHdfsSync.Options options = WebHdfsSync.Options.create().checksum(true);
+        WebHdfsSync.Report report = new WebHdfsSync(options).sync(localDir, testResource);
+        assertTrue(report.getUploads().isEmpty());
+        assertEquals(report.getUnchanged(), 2L);
+
+        write("a.txt", "Jello");
+        report = new WebHdfsSync(options).sync(localDir, testResource);
+        assertEquals(report.getUploads(), Collections.singletonList("a.txt"));
+    }
+}